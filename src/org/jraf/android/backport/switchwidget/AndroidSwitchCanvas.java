@@ -0,0 +1,100 @@
+package org.jraf.android.backport.switchwidget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.text.Layout;
+
+/**
+ * {@link SwitchCanvas} forwarding to a framework {@link Canvas}, the handles being
+ * {@link Bitmap}s, {@link Drawable}s and {@link Layout}s. One instance is kept per view and
+ * pointed at the canvas of the current frame, so drawing allocates nothing.
+ * <p>
+ * A color other than opaque white is drawn through a paint of that color, its alpha
+ * fading the image and the filter of {@link SwitchTint#getFilter(int)} coloring it.
+ */
+final class AndroidSwitchCanvas implements SwitchCanvas {
+
+    private Canvas mCanvas;
+    private final RectF mRect = new RectF();
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    private final Paint mMeshPaint = new Paint();
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mShapePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    void setCanvas(Canvas canvas) {
+        mCanvas = canvas;
+    }
+
+    @Override
+    public int save() {
+        return mCanvas.save();
+    }
+
+    @Override
+    public void restore() {
+        mCanvas.restore();
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        mCanvas.translate(dx, dy);
+    }
+
+    @Override
+    public boolean clipRect(int left, int top, int right, int bottom) {
+        return mCanvas.clipRect(left, top, right, bottom);
+    }
+
+    @Override
+    public void drawBitmapMesh(Object bitmap, int meshWidth, int meshHeight, float[] verts, int color) {
+        mCanvas.drawBitmapMesh((Bitmap) bitmap, meshWidth, meshHeight, verts, 0, null, 0,
+                               color == 0xffffffff ? null : tint(mMeshPaint, color));
+    }
+
+    @Override
+    public void drawBitmap(Object bitmap, IntRect src, IntRect dst, int color) {
+        mSrc.set(src.left, src.top, src.right, src.bottom);
+        mDst.set(dst.left, dst.top, dst.right, dst.bottom);
+        mCanvas.drawBitmap((Bitmap) bitmap, mSrc, mDst, tint(mBitmapPaint, color));
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float radius, int color) {
+        mRect.set(left, top, right, bottom);
+        mShapePaint.setColor(color);
+        mCanvas.drawRoundRect(mRect, radius, radius, mShapePaint);
+    }
+
+    @Override
+    public void drawDrawable(Object drawable, IntRect bounds) {
+        final Drawable d = (Drawable) drawable;
+        // a no-op when the bounds did not change
+        d.setBounds(bounds.left, bounds.top, bounds.right, bounds.bottom);
+        d.draw(mCanvas);
+    }
+
+    @Override
+    public void drawLayout(Object layout) {
+        ((Layout) layout).draw(mCanvas);
+    }
+
+    /**
+     * @return {@code paint} multiplying what it draws by {@code color}.
+     */
+    private static Paint tint(Paint paint, int color) {
+        paint.setColor(color);
+        // the alpha of the paint already applies to the bitmap, the filter only colors it
+        final ColorFilter filter = (color & 0xffffff) == 0xffffff ? null : SwitchTint.getFilter(color | 0xff000000);
+        if (paint.getColorFilter() != filter) {
+            paint.setColorFilter(filter);
+        }
+        return paint;
+    }
+}
@@ -0,0 +1,173 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link TwoStateStore} kept in a memory-mapped file.
+ * <p>
+ * The file is a small header followed by one record per key:
+ * {@code [short key length][UTF-8 key][byte value]}. Records are never moved, so an
+ * index from key to value offset is built once when the file is opened and a change
+ * is a single byte written in place; new keys are appended. Nothing is parsed or
+ * rewritten as a whole, unlike the XML behind SharedPreferences.
+ * <p>
+ * A file that is not a store, or whose records run past their end, e.g. truncated by a
+ * crash, is refused with an {@link IOException} when opened.
+ * <p>
+ * Only depends on java.nio, so it can be used on a plain JVM. Methods are thread safe.
+ */
+public class MappedTwoStateStore implements TwoStateStore {
+
+    private static final int MAGIC = 0x41534231; // "ASB1"
+    private static final int HEADER_SIZE = 8;    // magic, end of records
+    private static final int END_OFFSET = 4;
+    private static final int INITIAL_SIZE = 4096;
+    private static final int MAX_KEY_LENGTH = Short.MAX_VALUE;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+    private int mEnd;
+    private final Map<String, Integer> mIndex = new HashMap<String, Integer>();
+
+    /**
+     * Opens the store in {@code file}, creating it if needed.
+     *
+     * @throws IOException If the file cannot be mapped or is not a store.
+     */
+    public MappedTwoStateStore(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        boolean opened = false;
+        try {
+            final long length = mFile.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("two state store too large: " + file);
+            }
+            final boolean created = length == 0;
+            if (!created && length < HEADER_SIZE) {
+                throw new IOException("truncated two state store: " + file);
+            }
+            map(Math.max(INITIAL_SIZE, (int) length));
+            if (created) {
+                mBuffer.putInt(0, MAGIC);
+                mBuffer.putInt(END_OFFSET, HEADER_SIZE);
+            } else if (mBuffer.getInt(0) != MAGIC) {
+                throw new IOException("not a two state store: " + file);
+            }
+            mEnd = mBuffer.getInt(END_OFFSET);
+            if (mEnd < HEADER_SIZE || (!created && mEnd > length)) {
+                throw new IOException("corrupted two state store: " + file + ", end " + mEnd);
+            }
+            buildIndex();
+            opened = true;
+        } finally {
+            if (!opened) {
+                // also closes the channel
+                mFile.close();
+            }
+        }
+    }
+
+    private void map(int size) throws IOException {
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Reads the records up to {@code mEnd}, already checked to be within the file.
+     *
+     * @throws IOException If a record runs past {@code mEnd}.
+     */
+    private void buildIndex() throws IOException {
+        int offset = HEADER_SIZE;
+        while (offset < mEnd) {
+            if (offset + 2 > mEnd) {
+                throw new IOException("corrupted two state store: record length at " + offset);
+            }
+            final int length = mBuffer.getShort(offset) & 0xffff;
+            if (length > MAX_KEY_LENGTH || offset + 2 + length + 1 > mEnd) {
+                throw new IOException("corrupted two state store: record at " + offset + " of " + length
+                                      + " bytes past the end " + mEnd);
+            }
+            final byte[] key = new byte[length];
+            mBuffer.position(offset + 2);
+            mBuffer.get(key);
+            offset += 2 + length;
+            mIndex.put(new String(key, UTF_8), offset);
+            offset += 1;
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mIndex.containsKey(key);
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        final Integer offset = mIndex.get(key);
+        if (offset == null) {
+            return defValue;
+        }
+        return mBuffer.get(offset) != 0;
+    }
+
+    @Override
+    public synchronized void putBoolean(String key, boolean value) {
+        final Integer offset = mIndex.get(key);
+        if (offset != null) {
+            mBuffer.put(offset, (byte) (value ? 1 : 0));
+            return;
+        }
+        final byte[] bytes = key.getBytes(UTF_8);
+        if (bytes.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("key too long: " + key);
+        }
+        final int recordSize = 2 + bytes.length + 1;
+        if (mEnd + recordSize > mBuffer.capacity()) {
+            try {
+                map(Math.max(mBuffer.capacity() * 2, mEnd + recordSize));
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot grow two state store", e);
+            }
+        }
+        mBuffer.putShort(mEnd, (short) bytes.length);
+        mBuffer.position(mEnd + 2);
+        mBuffer.put(bytes);
+        final int valueOffset = mEnd + 2 + bytes.length;
+        mBuffer.put(valueOffset, (byte) (value ? 1 : 0));
+        // publish the record only once it is complete
+        mEnd += recordSize;
+        mBuffer.putInt(END_OFFSET, mEnd);
+        mIndex.put(key, valueOffset);
+    }
+
+    /**
+     * @return The number of keys in the store.
+     */
+    public synchronized int size() {
+        return mIndex.size();
+    }
+
+    /**
+     * Forces the mapped pages to disk. Not needed for other readers of the store, only
+     * to survive a crash of the system.
+     */
+    public synchronized void sync() {
+        mBuffer.force();
+    }
+
+    public synchronized void close() throws IOException {
+        mBuffer.force();
+        mChannel.close();
+        mFile.close();
+    }
+}
@@ -0,0 +1,145 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Batches the boolean writes of {@link TwoStatePreference}s in write-behind mode.
+ * <p>
+ * Changed values are kept here, and served to readers, until the next flush, which
+ * writes all dirty keys of a {@link SharedPreferences} with a single asynchronous
+ * commit. Flushes happen one interval after the first pending write, see
+ * {@link #setInterval(long)}, or when {@link #flush()} is called, typically from
+ * {@code onPause()}.
+ * <p>
+ * Must be used from the UI thread.
+ */
+public final class PreferenceWriteBehind {
+    private static final String TAG = "PreferenceWriteBehind";
+
+    /** About one frame. */
+    public static final long DEFAULT_INTERVAL = 16;
+
+    private static final Map<SharedPreferences, Map<String, Boolean>> sDirty =
+            new HashMap<SharedPreferences, Map<String, Boolean>>();
+    private static long sInterval = DEFAULT_INTERVAL;
+    private static Handler sHandler;
+    private static Executor sCommitExecutor;
+    private static boolean sScheduled = false;
+
+    private static final Runnable sFlush = new Runnable() {
+        @Override
+        public void run() {
+            sScheduled = false;
+            flush();
+        }
+    };
+
+    private PreferenceWriteBehind() {
+    }
+
+    /**
+     * Sets how long writes are held before being committed together.
+     *
+     * @param millis The delay after the first pending write; 0 commits on the next loop.
+     */
+    public static void setInterval(long millis) {
+        sInterval = millis;
+    }
+
+    public static long getInterval() {
+        return sInterval;
+    }
+
+    /**
+     * @return true if some values have not been handed to {@link SharedPreferences} yet.
+     */
+    public static boolean hasPendingWrites() {
+        return !sDirty.isEmpty();
+    }
+
+    static void putBoolean(SharedPreferences prefs, String key, boolean value) {
+        Map<String, Boolean> dirty = sDirty.get(prefs);
+        if (dirty == null) {
+            dirty = new HashMap<String, Boolean>();
+            sDirty.put(prefs, dirty);
+        }
+        dirty.put(key, value);
+        if (!sScheduled) {
+            sScheduled = true;
+            getHandler().postDelayed(sFlush, sInterval);
+        }
+    }
+
+    /**
+     * @return The value waiting to be written for {@code key}, or null if none.
+     */
+    static Boolean getPendingBoolean(SharedPreferences prefs, String key) {
+        final Map<String, Boolean> dirty = sDirty.get(prefs);
+        return dirty == null ? null : dirty.get(key);
+    }
+
+    /**
+     * Hands every pending value to {@link SharedPreferences} now, one commit per file.
+     * The disk write itself stays asynchronous.
+     */
+    @SuppressLint("CommitPrefEdits")
+    public static void flush() {
+        if (sScheduled) {
+            getHandler().removeCallbacks(sFlush);
+            sScheduled = false;
+        }
+        final Iterator<Map.Entry<SharedPreferences, Map<String, Boolean>>> it = sDirty.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<SharedPreferences, Map<String, Boolean>> entry = it.next();
+            it.remove();
+            final SharedPreferences.Editor editor = entry.getKey().edit();
+            for (Map.Entry<String, Boolean> value : entry.getValue().entrySet()) {
+                editor.putBoolean(value.getKey(), value.getValue());
+            }
+            Log.d(TAG, "flushing " + entry.getValue().size() + " values");
+            commitAsync(editor);
+        }
+    }
+
+    /**
+     * Commits {@code editor} without writing to disk on the calling thread.
+     */
+    @SuppressLint("NewApi")
+    static void commitAsync(final SharedPreferences.Editor editor) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            editor.apply();
+        } else {
+            getCommitExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    editor.commit();
+                }
+            });
+        }
+    }
+
+    private static Handler getHandler() {
+        if (sHandler == null) {
+            sHandler = new Handler(Looper.getMainLooper());
+        }
+        return sHandler;
+    }
+
+    private static Executor getCommitExecutor() {
+        if (sCommitExecutor == null) {
+            sCommitExecutor = Executors.newSingleThreadExecutor();
+        }
+        return sCommitExecutor;
+    }
+}
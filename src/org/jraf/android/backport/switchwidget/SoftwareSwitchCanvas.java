@@ -0,0 +1,416 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.Arrays;
+
+/**
+ * {@link SwitchCanvas} rasterizing into an in-memory, non premultiplied ARGB buffer.
+ * <p>
+ * The compositing is done here in Java, so a frame comes out the same on every device
+ * whatever its GPU or Skia version, which is what pixel-diff tests need. It uses no
+ * framework class and runs on a plain JVM, e.g. in the unit tests under
+ * {@code src/test}. A handle drawn through the canvas is either a {@link Raster}, drawn
+ * as it is, or resolved to one by the {@link Resolver} supplied by the caller, e.g. from
+ * the bitmaps, drawables and layouts of a {@link Switch} in the instrumentation tests.
+ * <p>
+ * Bitmap meshes are rasterized triangle by triangle with nearest sampling and
+ * multiplied by their color, and so are scaled bitmaps; a drawable is scaled into its
+ * bounds; round rectangles are filled without anti-aliasing. Everything is composited
+ * with SRC_OVER.
+ */
+public class SoftwareSwitchCanvas implements SwitchCanvas {
+
+    /**
+     * A block of ARGB pixels, placed at ({@link #left}, {@link #top}) in the local
+     * coordinates of the canvas when drawn as a layout, or as a drawable with empty
+     * bounds. A drawable with bounds is scaled into them instead.
+     * <p>
+     * A raster is also a handle of its own, for images built without the framework.
+     */
+    public static final class Raster {
+        public final int[] pixels;
+        public final int width;
+        public final int height;
+        public final int left;
+        public final int top;
+
+        public Raster(int[] pixels, int width, int height) {
+            this(pixels, width, height, 0, 0);
+        }
+
+        public Raster(int[] pixels, int width, int height, int left, int top) {
+            if (pixels.length < width * height) {
+                throw new IllegalArgumentException("pixels too small: " + pixels.length);
+            }
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.left = left;
+            this.top = top;
+        }
+    }
+
+    /**
+     * Provides the pixels of the handles drawn through the canvas.
+     */
+    public interface Resolver {
+        /**
+         * @param source The handle of an image, drawable or layout, other than a
+         *            {@link Raster}.
+         * @param width The width the source is drawn at, e.g. the bounds of a drawable, or
+         *            0 when it is drawn at its own size.
+         * @param height Likewise.
+         * @return The pixels to draw for {@code source}, or null to draw nothing.
+         */
+        Raster resolve(Object source, int width, int height);
+    }
+
+    private static final int MAX_SAVE_DEPTH = 32;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPixels;
+    private final Resolver mResolver;
+
+    private float mTranslateX;
+    private float mTranslateY;
+    private int mClipLeft;
+    private int mClipTop;
+    private int mClipRight;
+    private int mClipBottom;
+
+    // translateX, translateY, clipLeft, clipTop, clipRight, clipBottom per level
+    private final float[] mStack = new float[MAX_SAVE_DEPTH * 6];
+    private int mSaveCount = 0;
+
+    private int mDrawCalls = 0;
+    private long mPixelsWritten = 0;
+
+    /**
+     * @param resolver Resolves the handles other than {@link Raster}s, may be null when
+     *            only rasters are drawn.
+     */
+    public SoftwareSwitchCanvas(int width, int height, Resolver resolver) {
+        mWidth = width;
+        mHeight = height;
+        mPixels = new int[width * height];
+        mResolver = resolver;
+        mClipRight = width;
+        mClipBottom = height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The backing buffer, row major, {@code width * height} ARGB pixels.
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public int getPixel(int x, int y) {
+        return mPixels[y * mWidth + x];
+    }
+
+    /**
+     * Fills the whole buffer with {@code color} and resets the translation, the clip
+     * and the counters.
+     */
+    public void clear(int color) {
+        Arrays.fill(mPixels, color);
+        mTranslateX = 0;
+        mTranslateY = 0;
+        mClipLeft = 0;
+        mClipTop = 0;
+        mClipRight = mWidth;
+        mClipBottom = mHeight;
+        mSaveCount = 0;
+        mDrawCalls = 0;
+        mPixelsWritten = 0;
+    }
+
+    /**
+     * @return The number of draw calls since the last {@link #clear(int)}.
+     */
+    public int getDrawCallCount() {
+        return mDrawCalls;
+    }
+
+    /**
+     * @return The number of pixels composited since the last {@link #clear(int)}.
+     */
+    public long getPixelsWritten() {
+        return mPixelsWritten;
+    }
+
+    @Override
+    public int save() {
+        if (mSaveCount == MAX_SAVE_DEPTH) {
+            throw new IllegalStateException("save depth exceeded: " + MAX_SAVE_DEPTH);
+        }
+        final int i = mSaveCount * 6;
+        mStack[i + 0] = mTranslateX;
+        mStack[i + 1] = mTranslateY;
+        mStack[i + 2] = mClipLeft;
+        mStack[i + 3] = mClipTop;
+        mStack[i + 4] = mClipRight;
+        mStack[i + 5] = mClipBottom;
+        return mSaveCount++;
+    }
+
+    @Override
+    public void restore() {
+        if (mSaveCount == 0) {
+            throw new IllegalStateException("underflow in restore");
+        }
+        final int i = --mSaveCount * 6;
+        mTranslateX = mStack[i + 0];
+        mTranslateY = mStack[i + 1];
+        mClipLeft = (int) mStack[i + 2];
+        mClipTop = (int) mStack[i + 3];
+        mClipRight = (int) mStack[i + 4];
+        mClipBottom = (int) mStack[i + 5];
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        mTranslateX += dx;
+        mTranslateY += dy;
+    }
+
+    @Override
+    public boolean clipRect(int left, int top, int right, int bottom) {
+        mClipLeft = Math.max(mClipLeft, (int) Math.floor(left + mTranslateX));
+        mClipTop = Math.max(mClipTop, (int) Math.floor(top + mTranslateY));
+        mClipRight = Math.min(mClipRight, (int) Math.ceil(right + mTranslateX));
+        mClipBottom = Math.min(mClipBottom, (int) Math.ceil(bottom + mTranslateY));
+        return mClipLeft < mClipRight && mClipTop < mClipBottom;
+    }
+
+    @Override
+    public void drawBitmapMesh(Object bitmap, int meshWidth, int meshHeight, float[] verts, int tint) {
+        mDrawCalls++;
+        final Raster src = resolve(bitmap, 0, 0);
+        if (src == null) {
+            return;
+        }
+        final int row = meshWidth + 1;
+        for (int y = 0; y < meshHeight; y++) {
+            final float v0 = (float) src.height * y / meshHeight;
+            final float v1 = (float) src.height * (y + 1) / meshHeight;
+            for (int x = 0; x < meshWidth; x++) {
+                final float u0 = (float) src.width * x / meshWidth;
+                final float u1 = (float) src.width * (x + 1) / meshWidth;
+                final int a = (y * row + x) * 2;
+                final int b = a + 2;
+                final int c = a + row * 2;
+                final int d = c + 2;
+                fillTriangle(src, tint,
+                             verts[a], verts[a + 1], u0, v0,
+                             verts[b], verts[b + 1], u1, v0,
+                             verts[c], verts[c + 1], u0, v1);
+                fillTriangle(src, tint,
+                             verts[b], verts[b + 1], u1, v0,
+                             verts[d], verts[d + 1], u1, v1,
+                             verts[c], verts[c + 1], u0, v1);
+            }
+        }
+    }
+
+    @Override
+    public void drawBitmap(Object bitmap, IntRect src, IntRect dst, int tint) {
+        mDrawCalls++;
+        final Raster raster = resolve(bitmap, 0, 0);
+        if (raster == null || src.isEmpty()) {
+            return;
+        }
+        scale(raster, src.left, src.top, src.width(), src.height(), dst, tint);
+    }
+
+    /**
+     * Draws the {@code (sx, sy, sw, sh)} part of {@code raster} scaled into {@code dst},
+     * multiplied by {@code tint}.
+     */
+    private void scale(Raster raster, int sx0, int sy0, int sw, int sh, IntRect dst, int tint) {
+        final int dx = Math.round(dst.left + mTranslateX);
+        final int dy = Math.round(dst.top + mTranslateY);
+        final int dw = dst.width();
+        final int dh = dst.height();
+        if (dw <= 0 || dh <= 0) {
+            return;
+        }
+        final int left = Math.max(mClipLeft, dx);
+        final int top = Math.max(mClipTop, dy);
+        final int right = Math.min(mClipRight, dx + dw);
+        final int bottom = Math.min(mClipBottom, dy + dh);
+        for (int y = top; y < bottom; y++) {
+            final int sy = clamp(sy0 + (y - dy) * sh / dh, raster.height - 1);
+            for (int x = left; x < right; x++) {
+                final int sx = clamp(sx0 + (x - dx) * sw / dw, raster.width - 1);
+                final int color = raster.pixels[sy * raster.width + sx];
+                final int o = y * mWidth + x;
+                mPixels[o] = blend(mPixels[o], tint == 0xffffffff ? color : multiply(color, tint));
+            }
+        }
+        if (right > left && bottom > top) {
+            mPixelsWritten += (right - left) * (bottom - top);
+        }
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float radius, int color) {
+        mDrawCalls++;
+        left += mTranslateX; right += mTranslateX;
+        top += mTranslateY; bottom += mTranslateY;
+        final int x0 = Math.max(mClipLeft, (int) Math.floor(left));
+        final int y0 = Math.max(mClipTop, (int) Math.floor(top));
+        final int x1 = Math.min(mClipRight, (int) Math.ceil(right));
+        final int y1 = Math.min(mClipBottom, (int) Math.ceil(bottom));
+        final float r = Math.min(radius, Math.min(right - left, bottom - top) / 2);
+        for (int y = y0; y < y1; y++) {
+            final float py = y + 0.5f;
+            for (int x = x0; x < x1; x++) {
+                final float px = x + 0.5f;
+                if (px < left || px >= right || py < top || py >= bottom) {
+                    continue;
+                }
+                // distance to the center of the nearest corner, when in a corner square
+                final float cx = px < left + r ? left + r - px : (px > right - r ? px - right + r : 0);
+                final float cy = py < top + r ? top + r - py : (py > bottom - r ? py - bottom + r : 0);
+                if (cx * cx + cy * cy > r * r) {
+                    continue;
+                }
+                final int o = y * mWidth + x;
+                mPixels[o] = blend(mPixels[o], color);
+                mPixelsWritten++;
+            }
+        }
+    }
+
+    @Override
+    public void drawDrawable(Object drawable, IntRect bounds) {
+        mDrawCalls++;
+        if (bounds.isEmpty()) {
+            blit(resolve(drawable, 0, 0));
+            return;
+        }
+        final Raster raster = resolve(drawable, bounds.width(), bounds.height());
+        if (raster != null) {
+            scale(raster, 0, 0, raster.width, raster.height, bounds, 0xffffffff);
+        }
+    }
+
+    @Override
+    public void drawLayout(Object layout) {
+        mDrawCalls++;
+        blit(resolve(layout, 0, 0));
+    }
+
+    private Raster resolve(Object source, int width, int height) {
+        if (source instanceof Raster) {
+            return (Raster) source;
+        }
+        return mResolver != null ? mResolver.resolve(source, width, height) : null;
+    }
+
+    private void blit(Raster src) {
+        if (src == null) {
+            return;
+        }
+        final int dx = Math.round(src.left + mTranslateX);
+        final int dy = Math.round(src.top + mTranslateY);
+        final int left = Math.max(mClipLeft, dx);
+        final int top = Math.max(mClipTop, dy);
+        final int right = Math.min(mClipRight, dx + src.width);
+        final int bottom = Math.min(mClipBottom, dy + src.height);
+        for (int y = top; y < bottom; y++) {
+            int s = (y - dy) * src.width + (left - dx);
+            int o = y * mWidth + left;
+            for (int x = left; x < right; x++) {
+                mPixels[o] = blend(mPixels[o], src.pixels[s]);
+                o++;
+                s++;
+            }
+        }
+        if (right > left && bottom > top) {
+            mPixelsWritten += (right - left) * (bottom - top);
+        }
+    }
+
+    private void fillTriangle(Raster src, int tint,
+                              float x0, float y0, float u0, float v0,
+                              float x1, float y1, float u1, float v1,
+                              float x2, float y2, float u2, float v2) {
+        x0 += mTranslateX; y0 += mTranslateY;
+        x1 += mTranslateX; y1 += mTranslateY;
+        x2 += mTranslateX; y2 += mTranslateY;
+
+        final float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        if (area == 0) {
+            return;
+        }
+        final int left = Math.max(mClipLeft, (int) Math.floor(Math.min(x0, Math.min(x1, x2))));
+        final int top = Math.max(mClipTop, (int) Math.floor(Math.min(y0, Math.min(y1, y2))));
+        final int right = Math.min(mClipRight, (int) Math.ceil(Math.max(x0, Math.max(x1, x2))));
+        final int bottom = Math.min(mClipBottom, (int) Math.ceil(Math.max(y0, Math.max(y1, y2))));
+
+        for (int y = top; y < bottom; y++) {
+            final float py = y + 0.5f;
+            for (int x = left; x < right; x++) {
+                final float px = x + 0.5f;
+                // barycentric weights, normalized by the signed area
+                final float w0 = ((x1 - px) * (y2 - py) - (x2 - px) * (y1 - py)) / area;
+                final float w1 = ((x2 - px) * (y0 - py) - (x0 - px) * (y2 - py)) / area;
+                final float w2 = 1f - w0 - w1;
+                if (w0 < 0 || w1 < 0 || w2 < 0) {
+                    continue;
+                }
+                final int su = clamp((int) (w0 * u0 + w1 * u1 + w2 * u2), src.width - 1);
+                final int sv = clamp((int) (w0 * v0 + w1 * v1 + w2 * v2), src.height - 1);
+                final int o = y * mWidth + x;
+                final int color = src.pixels[sv * src.width + su];
+                mPixels[o] = blend(mPixels[o], tint == 0xffffffff ? color : multiply(color, tint));
+                mPixelsWritten++;
+            }
+        }
+    }
+
+    private static int clamp(int value, int max) {
+        return value < 0 ? 0 : (value > max ? max : value);
+    }
+
+    /**
+     * Channel by channel product of two ARGB colors, the MULTIPLY filter of a tint.
+     */
+    static int multiply(int color, int tint) {
+        final int a = (color >>> 24) * (tint >>> 24) / 0xff;
+        final int r = ((color >> 16) & 0xff) * ((tint >> 16) & 0xff) / 0xff;
+        final int g = ((color >> 8) & 0xff) * ((tint >> 8) & 0xff) / 0xff;
+        final int b = (color & 0xff) * (tint & 0xff) / 0xff;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * SRC_OVER of two non premultiplied ARGB colors.
+     */
+    static int blend(int dst, int src) {
+        final int sa = src >>> 24;
+        if (sa == 0xff) {
+            return src;
+        }
+        if (sa == 0) {
+            return dst;
+        }
+        final int da = (dst >>> 24) * (0xff - sa) / 0xff;
+        final int a = sa + da;
+        final int r = (((src >> 16) & 0xff) * sa + ((dst >> 16) & 0xff) * da) / a;
+        final int g = (((src >> 8) & 0xff) * sa + ((dst >> 8) & 0xff) * da) / a;
+        final int b = ((src & 0xff) * sa + (dst & 0xff) * da) / a;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -24,6 +24,9 @@
  */
 package org.jraf.android.backport.switchwidget;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import android.animation.Animator;
 import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
@@ -41,9 +44,10 @@ import android.graphics.drawable.Drawable;
 import android.graphics.drawable.ShapeDrawable;
 import android.graphics.drawable.shapes.RoundRectShape;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.text.Layout;
-import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.text.TextUtils;
 import android.util.AttributeSet;
@@ -51,6 +55,7 @@ import android.util.Log;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
+import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.animation.Interpolator;
 import android.view.animation.LinearInterpolator;
@@ -87,7 +92,10 @@ public class Switch extends CompoundButton
         }
     }
 
-    enum ThumbState {
+    /**
+     * Where the thumb is in its toggle animation, see {@link OnStuckListener}.
+     */
+    public enum ThumbState {
         TS_STOPPED,
         TS_SQUASHING,
         TS_SQUASHING_TO_RESTORE,
@@ -115,8 +123,12 @@ public class Switch extends CompoundButton
     private final int mThumbDrawableShadowOffset;
     private final Drawable mOnTrackDrawable;
     private final Drawable mOffTrackDrawable;
-    private final Drawable mDisabledLeft;
-    private final Drawable mDisabledRight;
+    // decoded on first drawDisabled()
+    private Drawable mDisabledLeft;
+    private Drawable mDisabledRight;
+    private final int mDisabledLeftId;
+    private final int mDisabledRightId;
+    private final int mDisabledAlpha;
     private final int mThumbTextPadding;
     private final int mSwitchMinWidth;
     private final int mSwitchPadding;
@@ -125,6 +137,9 @@ public class Switch extends CompoundButton
 
     private ShapeDrawable mBottomLayer;
     private final int mBottomLayerColor;
+    // null unless the thumb and tracks are grayscale masks
+    private final ColorStateList mThumbTint;
+    private final ColorStateList mTrackTint;
 
     private int mTouchMode;
     private final int mTouchSlop;
@@ -133,6 +148,19 @@ public class Switch extends CompoundButton
     private final VelocityTracker mVelocityTracker = VelocityTracker.obtain();
     private final int mMinFlingVelocity;
 
+    // Drag moves are coalesced and applied once per frame
+    private float mPendingTouchX;
+    private boolean mDragFramePending = false;
+    private final Runnable mDragFrame = new Runnable() {
+        @Override
+        public void run() {
+            mDragFramePending = false;
+            if (mTouchMode == TOUCH_MODE_DRAGGING) {
+                applyPendingDrag();
+            }
+        }
+    };
+
     private float mThumbPosition;
     private int mSwitchWidth;
     private int mSwitchHeight;
@@ -151,12 +179,95 @@ public class Switch extends CompoundButton
     private Layout mOffLayout;
 
     private final Rect mTempRect = new Rect();
+    private final AndroidSwitchCanvas mSwitchCanvas = new AndroidSwitchCanvas();
+    private final SwitchCanvas.IntRect mDrawBounds = new SwitchCanvas.IntRect();
+
+    // asb_snapshot, see drawSnapshot(); the style tells apart the switches looking the same,
+    // null if it is not shared or this switch was restyled
+    private boolean mSnapshotEnabled;
+    private SwitchStyle mSnapshotStyle;
+    private final SwitchSnapshots.Key mSnapshotKey = new SwitchSnapshots.Key();
 
     private static final int[] CHECKED_STATE_SET = { android.R.attr.state_checked };
     private float mRoundRadius;
     private boolean mChecked = false;
     private boolean mInvalidate = false;
     private boolean mTouchable = true;
+    private boolean mInstantCommit = false;
+    private boolean mBroadcasting = false;
+    private OnCheckedChangeListener mOnCheckedChangeListener;
+
+    // Latest value given to postChecked(), POSTED_NONE once applied
+    private static final int POSTED_NONE = -1;
+    private final AtomicInteger mPostedChecked = new AtomicInteger(POSTED_NONE);
+    private final AtomicBoolean mPostedCheckedScheduled = new AtomicBoolean(false);
+    private final Runnable mApplyPostedChecked = new Runnable() {
+        @Override
+        public void run() {
+            mPostedCheckedScheduled.set(false);
+            applyPostedChecked();
+        }
+    };
+    // View.post() from another thread is lost while the view is detached, before Nougat:
+    // postChecked() goes through the main looper first
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSchedulePostedChecked = new Runnable() {
+        @Override
+        public void run() {
+            postOnAnimationCompat(mApplyPostedChecked);
+        }
+    };
+
+    private static final long DEFAULT_TOGGLE_TIMEOUT = 10000;
+
+    private OnToggleRequestListener mOnToggleRequestListener;
+    private ToggleRequest mPendingRequest;
+    private boolean mDesiredChecked;
+    private long mToggleTimeoutMillis = DEFAULT_TOGGLE_TIMEOUT;
+    private final Runnable mToggleTimeout = new Runnable() {
+        @Override
+        public void run() {
+            final ToggleRequest request = mPendingRequest;
+            if (request != null && request.timeOut()) {
+                onToggleRequestFinished(request);
+            }
+        }
+    };
+
+    // Off unless the app asks for it, the app may legitimately take its time to commit
+    private static final long DEFAULT_STUCK_TIMEOUT = 0;
+
+    private OnStuckListener mOnStuckListener;
+    private long mStuckTimeoutMillis = DEFAULT_STUCK_TIMEOUT;
+    // When the thumb last left TS_STOPPED
+    private long mBusySince;
+    private final Runnable mWatchdog = new Runnable() {
+        @Override
+        public void run() {
+            if (mThumbState == ThumbState.TS_STOPPED || mStuckTimeoutMillis <= 0) {
+                return;
+            }
+            if (mTouchMode != TOUCH_MODE_IDLE) {
+                // held by the finger, not stuck; start counting again once released
+                mBusySince = SystemClock.uptimeMillis();
+                postDelayed(this, mStuckTimeoutMillis);
+                return;
+            }
+            if (mPendingRequest != null) {
+                // the request has its own deadline, see setToggleTimeout()
+                mBusySince = SystemClock.uptimeMillis();
+                postDelayed(this, mStuckTimeoutMillis);
+                return;
+            }
+            final long left = mBusySince + mStuckTimeoutMillis - SystemClock.uptimeMillis();
+            if (left > 0) {
+                // the timeout was raised meanwhile
+                postDelayed(this, left);
+                return;
+            }
+            recoverStuckState("watchdog");
+        }
+    };
 
     private void init() {
         mBottomLayer = new ShapeDrawable();
@@ -208,7 +319,7 @@ public class Switch extends CompoundButton
         init();
     }
 
-    private static final int THUMB_SQUASH_RATIO = 2630;
+    static final int THUMB_SQUASH_RATIO = 2630;
 
     /**
      * Construct a new Switch with a default style determined by the given theme attribute,
@@ -228,33 +339,37 @@ public class Switch extends CompoundButton
         // XXX Was on the Android source, but had to comment it out (doesn't exist in 2.1). -- BoD
         // mTextPaint.setCompatibilityScaling(res.getCompatibilityInfo().applicationScale);
 
-        final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.Switch, defStyle, 0);
-
-        Drawable circle = a.getDrawable(R.styleable.Switch_asb_thumbCircle);
-        mThumbDrawable = new ThumbDrawable(a.getDrawable(R.styleable.Switch_asb_thumb), circle, THUMB_SQUASH_RATIO);
-        mThumbDrawableMargin= a.getDimensionPixelSize(R.styleable.Switch_asb_thumbMargin, 0);
-        mThumbDrawableShadowOffset = a.getDimensionPixelSize(R.styleable.Switch_asb_thumbShadowOffset, 0);
-        mOnTrackDrawable = a.getDrawable(R.styleable.Switch_asb_onTrack);
-        mOffTrackDrawable = a.getDrawable(R.styleable.Switch_asb_offTrack);
-        mDisabledLeft = a.getDrawable(R.styleable.Switch_asb_disabledLeft);
-        mDisabledRight = a.getDrawable(R.styleable.Switch_asb_disabledRight);
-        mDrawText = a.getBoolean(R.styleable.Switch_asb_drawText, false);
-        mTextOn = a.getText(R.styleable.Switch_asb_textOn);
-        mTextOff = a.getText(R.styleable.Switch_asb_textOff);
-        mThumbTextPadding = a.getDimensionPixelSize(R.styleable.Switch_asb_thumbTextPadding, 0);
-        mSwitchMinWidth = a.getDimensionPixelSize(R.styleable.Switch_asb_switchMinWidth, 0);
-        mSwitchPadding = a.getDimensionPixelSize(R.styleable.Switch_asb_switchPadding, 0);
-        mBottomLayerColor = a.getColor(R.styleable.Switch_asb_trackColor, 0);
-
-        final int appearance = a.getResourceId(R.styleable.Switch_asb_switchTextAppearance, 0);
-        if (appearance != 0) {
-            setSwitchTextAppearance(context, appearance);
-        }
-        a.recycle();
-
-        final ViewConfiguration config = ViewConfiguration.get(context);
-        mTouchSlop = config.getScaledTouchSlop();
-        mMinFlingVelocity = config.getScaledMinimumFlingVelocity();
+        // Resolved once per theme, style and attributes, see SwitchStyle
+        final SwitchStyle style = SwitchStyle.obtain(context, attrs, defStyle);
+
+        mThumbDrawable = style.newThumb(res);
+        mThumbDrawableMargin = style.thumbMargin;
+        mThumbDrawableShadowOffset = style.thumbShadowOffset;
+        mOnTrackDrawable = style.newTrack(res, true);
+        mOffTrackDrawable = style.newTrack(res, false);
+        mDisabledLeftId = style.disabledLeftId;
+        mDisabledRightId = style.disabledRightId;
+        mDisabledAlpha = style.disabledAlpha;
+        mDrawText = style.drawText;
+        mTextOn = style.textOn;
+        mTextOff = style.textOff;
+        mThumbTextPadding = style.thumbTextPadding;
+        mSwitchMinWidth = style.switchMinWidth;
+        mSwitchPadding = style.switchPadding;
+        mBottomLayerColor = style.trackColor;
+        mThumbTint = style.thumbTint;
+        mTrackTint = style.trackTint;
+        mInstantCommit = style.instantCommit;
+        mSnapshotEnabled = style.snapshot;
+        mSnapshotStyle = style.isShared() ? style : null;
+
+        if (style.hasTextAppearance) {
+            setSwitchTextAppearance(style.textColors, style.textSize,
+                                    style.typefaceIndex, style.styleIndex);
+        }
+
+        mTouchSlop = style.touchSlop;
+        mMinFlingVelocity = style.minFlingVelocity;
 
         // Refresh display with current params
         refreshDrawableState();
@@ -266,12 +381,19 @@ public class Switch extends CompoundButton
      * from the specified TextAppearance resource.
      */
     public void setSwitchTextAppearance(Context context, int resid) {
+        // the text color is no longer the one of the style
+        mSnapshotStyle = null;
         final TypedArray appearance = context.obtainStyledAttributes(resid, R.styleable.Android);
 
-        ColorStateList colors;
-        int ts;
+        setSwitchTextAppearance(appearance.getColorStateList(R.styleable.Android_android_textColor),
+                                appearance.getDimensionPixelSize(R.styleable.Android_android_textSize, 0),
+                                appearance.getInt(R.styleable.Android_android_typeface, -1),
+                                appearance.getInt(R.styleable.Android_android_textStyle, -1));
 
-        colors = appearance.getColorStateList(R.styleable.Android_android_textColor);
+        appearance.recycle();
+    }
+
+    private void setSwitchTextAppearance(ColorStateList colors, int ts, int typefaceIndex, int styleIndex) {
         if (colors != null) {
             mTextColors = colors;
         } else {
@@ -279,41 +401,34 @@ public class Switch extends CompoundButton
             mTextColors = getTextColors();
         }
 
-        ts = appearance.getDimensionPixelSize(R.styleable.Android_android_textSize, 0);
         if (ts != 0) {
             if (ts != mTextPaint.getTextSize()) {
                 mTextPaint.setTextSize(ts);
+                mOnLayout = null;
+                mOffLayout = null;
                 requestLayout();
             }
         }
 
-        int typefaceIndex, styleIndex;
-
-        typefaceIndex = appearance.getInt(R.styleable.Android_android_typeface, -1);
-        styleIndex = appearance.getInt(R.styleable.Android_android_textStyle, -1);
-
         setSwitchTypefaceByIndex(typefaceIndex, styleIndex);
-
-        appearance.recycle();
     }
 
     private void setSwitchTypefaceByIndex(int typefaceIndex, int styleIndex) {
-        Typeface tf = null;
+        setSwitchTypeface(getTypefaceByIndex(typefaceIndex), styleIndex);
+    }
+
+    static Typeface getTypefaceByIndex(int typefaceIndex) {
         switch (typefaceIndex) {
             case SANS:
-                tf = Typeface.SANS_SERIF;
-                break;
+                return Typeface.SANS_SERIF;
 
             case SERIF:
-                tf = Typeface.SERIF;
-                break;
+                return Typeface.SERIF;
 
             case MONOSPACE:
-                tf = Typeface.MONOSPACE;
-                break;
+                return Typeface.MONOSPACE;
         }
-
-        setSwitchTypeface(tf, styleIndex);
+        return null;
     }
 
     /**
@@ -323,6 +438,21 @@ public class Switch extends CompoundButton
      * style that you specified.
      */
     public void setSwitchTypeface(Typeface tf, int style) {
+        final Typeface old = mTextPaint.getTypeface();
+        applySwitchTypeface(mTextPaint, tf, style);
+        if (mTextPaint.getTypeface() != old) {
+            mOnLayout = null;
+            mOffLayout = null;
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    /**
+     * Sets up {@code paint} the way {@link #setSwitchTypeface(Typeface, int)} does, also
+     * used for paints prepared off the UI thread.
+     */
+    static void applySwitchTypeface(TextPaint paint, Typeface tf, int style) {
         if (style > 0) {
             if (tf == null) {
                 tf = Typeface.defaultFromStyle(style);
@@ -330,16 +460,16 @@ public class Switch extends CompoundButton
                 tf = Typeface.create(tf, style);
             }
 
-            setSwitchTypeface(tf);
+            paint.setTypeface(tf);
             // now compute what (if any) algorithmic styling is needed
             final int typefaceStyle = tf != null ? tf.getStyle() : 0;
             final int need = style & ~typefaceStyle;
-            mTextPaint.setFakeBoldText((need & Typeface.BOLD) != 0);
-            mTextPaint.setTextSkewX((need & Typeface.ITALIC) != 0 ? -0.25f : 0);
+            paint.setFakeBoldText((need & Typeface.BOLD) != 0);
+            paint.setTextSkewX((need & Typeface.ITALIC) != 0 ? -0.25f : 0);
         } else {
-            mTextPaint.setFakeBoldText(false);
-            mTextPaint.setTextSkewX(0);
-            setSwitchTypeface(tf);
+            paint.setFakeBoldText(false);
+            paint.setTextSkewX(0);
+            paint.setTypeface(tf);
         }
     }
 
@@ -355,6 +485,8 @@ public class Switch extends CompoundButton
     public void setSwitchTypeface(Typeface tf) {
         if (mTextPaint.getTypeface() != tf) {
             mTextPaint.setTypeface(tf);
+            mOnLayout = null;
+            mOffLayout = null;
 
             requestLayout();
             invalidate();
@@ -372,7 +504,11 @@ public class Switch extends CompoundButton
      * Sets the text displayed when the button is in the checked state.
      */
     public void setTextOn(CharSequence textOn) {
+        if (TextUtils.equals(mTextOn, textOn)) {
+            return;
+        }
         mTextOn = textOn;
+        mOnLayout = null;
         requestLayout();
     }
 
@@ -387,7 +523,11 @@ public class Switch extends CompoundButton
      * Sets the text displayed when the button is not in the checked state.
      */
     public void setTextOff(CharSequence textOff) {
+        if (TextUtils.equals(mTextOff, textOff)) {
+            return;
+        }
         mTextOff = textOff;
+        mOffLayout = null;
         requestLayout();
     }
 
@@ -408,10 +548,10 @@ public class Switch extends CompoundButton
         final int parentHeight = MeasureSpec.getSize(heightMeasureSpec);
 
         if (mOnLayout == null) {
-            mOnLayout = makeLayout(mTextOn);
+            mOnLayout = SwitchStyle.getLayout(mTextOn, mTextPaint);
         }
         if (mOffLayout == null) {
-            mOffLayout = makeLayout(mTextOff);
+            mOffLayout = SwitchStyle.getLayout(mTextOff, mTextPaint);
         }
 
         mOnTrackDrawable.getPadding(mTempRect);
@@ -470,11 +610,6 @@ public class Switch extends CompoundButton
     //     }
     // }
 
-    private Layout makeLayout(CharSequence text) {
-        return new StaticLayout(text, mTextPaint,
-                                (int) Math.ceil(Layout.getDesiredWidth(text, mTextPaint)), Layout.Alignment.ALIGN_NORMAL, 1.f, 0, true);
-    }
-
     /**
      * @return true if (x, y) is within the target area of the switch thumb
      */
@@ -507,10 +642,25 @@ public class Switch extends CompoundButton
     private long mStartClickTime = 0;
     private static final int MAX_CLICK_DURATION = 200;
 
+    // Squash of a still press, started once the touch is no longer likely to be a scroll
+    private final Runnable mPressSquash = new Runnable() {
+        @Override
+        public void run() {
+            if (mTouchMode == TOUCH_MODE_DOWN) {
+                startPressSquash();
+            }
+        }
+    };
+
     @SuppressLint("NewApi")
     @Override
     public boolean onTouchEvent(MotionEvent ev) {
         if (!mTouchable) {
+            if (mPendingRequest != null && ev.getAction() == MotionEvent.ACTION_UP
+                    && isEnabled() && hitThumb(ev.getX(), ev.getY())) {
+                // tap while the request is pending, coalesced by toggle()
+                toggle();
+            }
             Log.d(TAG, "un-touchable!");
             return true;
         }
@@ -532,8 +682,8 @@ public class Switch extends CompoundButton
                     mTouchX = x;
                     mTouchY = y;
                     if (mThumbState == ThumbState.TS_STOPPED) {
-                        mThumbState = ThumbState.TS_SQUASHING;
-                        startSquashAnim(SQUASHING_ANIM_DURATION);
+                        // Don't squash yet, the finger may be starting a scroll of the parent
+                        postDelayed(mPressSquash, ViewConfiguration.getTapTimeout());
                         mStartClickTime = SystemClock.uptimeMillis();
                         Log.d(TAG, "touched here!");
                     }
@@ -548,24 +698,34 @@ public class Switch extends CompoundButton
                         break;
 
                     case TOUCH_MODE_DOWN: {
-                        // if (Math.abs(x - mTouchX) > mTouchSlop || Math.abs(y - mTouchY) > mTouchSlop) {
-                        mTouchMode = TOUCH_MODE_DRAGGING;
-                        getParent().requestDisallowInterceptTouchEvent(true);
-                        mTouchX = x;
-                        mTouchY = y;
-                        return true;
-                        // }
-                        // break;
+                        final float adx = Math.abs(x - mTouchX);
+                        final float ady = Math.abs(y - mTouchY);
+                        if (adx > mTouchSlop && adx > ady) {
+                            // Horizontal intent, the gesture is ours
+                            mTouchMode = TOUCH_MODE_DRAGGING;
+                            getParent().requestDisallowInterceptTouchEvent(true);
+                            removeCallbacks(mPressSquash);
+                            startPressSquash();
+                            mTouchX = x;
+                            mTouchY = y;
+                            mPendingTouchX = x;
+                            return true;
+                        }
+                        if (ady > mTouchSlop) {
+                            // Vertical intent, leave the gesture to the scrolling parent
+                            Log.d(TAG, "vertical move, giving up the thumb");
+                            mTouchMode = TOUCH_MODE_IDLE;
+                            removeCallbacks(mPressSquash);
+                            releaseSquash();
+                        }
+                        break;
                     }
 
                     case TOUCH_MODE_DRAGGING: {
-                        final float dx = x - mTouchX;
-                        final float newPos = Math.max(0, Math.min(mThumbPosition + dx, getThumbScrollRange()));
-                        if (newPos != mThumbPosition && IsSquashingFinshed()) {
-                            mThumbPosition = newPos;
-                            mTouchX = x;
-                            invalidate();
-                        }
+                        // The historical samples batched in this event already went
+                        // to the velocity tracker; only the newest one moves the thumb.
+                        mPendingTouchX = x;
+                        scheduleDragFrame();
                         return true;
                     }
                 }
@@ -575,12 +735,16 @@ public class Switch extends CompoundButton
             case MotionEvent.ACTION_UP:
             case MotionEvent.ACTION_CANCEL: {
                 Log.d(TAG, (action == MotionEvent.ACTION_UP ? "ACTION_UP" : "ACTION_CANCEL") + " touchMode: " + mTouchMode);
+                removeCallbacks(mPressSquash);
                 if (mTouchMode == TOUCH_MODE_DRAGGING) {
                     stopDrag(ev);
                     return true;
                 }
                 mTouchMode = TOUCH_MODE_IDLE;
                 mVelocityTracker.clear();
+                if (action == MotionEvent.ACTION_CANCEL) {
+                    releaseSquash();
+                }
                 break;
             }
         }
@@ -588,6 +752,61 @@ public class Switch extends CompoundButton
         return super.onTouchEvent(ev);
     }
 
+    private void startPressSquash() {
+        if (mThumbState == ThumbState.TS_STOPPED) {
+            setThumbState(ThumbState.TS_SQUASHING);
+            startSquashAnim(SQUASHING_ANIM_DURATION);
+        }
+    }
+
+    /**
+     * Unsquashes the thumb of a press that turned out not to be a drag or a click.
+     */
+    private void releaseSquash() {
+        if (mThumbState != ThumbState.TS_SQUASHING || mSquashAnim.isRunning()) {
+            // a running squash restores itself in onAnimationEnd()
+            return;
+        }
+        if (startRestoreAnim()) {
+            setThumbState(ThumbState.TS_RESTORING);
+        } else {
+            setThumbState(ThumbState.TS_STOPPED);
+        }
+    }
+
+    private void scheduleDragFrame() {
+        if (!mDragFramePending) {
+            mDragFramePending = true;
+            postOnAnimationCompat(mDragFrame);
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private void postOnAnimationCompat(Runnable action) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postOnAnimation(action);
+        } else {
+            post(action);
+        }
+    }
+
+    /**
+     * Moves the thumb to the last touch position received, once per frame.
+     */
+    private void applyPendingDrag() {
+        if (mDragFramePending) {
+            removeCallbacks(mDragFrame);
+            mDragFramePending = false;
+        }
+        final float dx = mPendingTouchX - mTouchX;
+        final float newPos = Math.max(0, Math.min(mThumbPosition + dx, getThumbScrollRange()));
+        if (newPos != mThumbPosition && IsSquashingFinshed()) {
+            mThumbPosition = newPos;
+            mTouchX = mPendingTouchX;
+            invalidate();
+        }
+    }
+
     private void cancelSuperTouch(MotionEvent ev) {
         Log.d(TAG, "--> cancelSuperTouch");
         final MotionEvent cancel = MotionEvent.obtain(ev);
@@ -605,6 +824,14 @@ public class Switch extends CompoundButton
         mTouchMode = TOUCH_MODE_IDLE;
         // Up and not canceled, also checks the switch has not been disabled during the drag
         final boolean commitChange = ev.getAction() == MotionEvent.ACTION_UP && isEnabled();
+        if (commitChange) {
+            // The target state is taken from the thumb position, catch up with the finger first
+            mPendingTouchX = ev.getX();
+            applyPendingDrag();
+        } else if (mDragFramePending) {
+            removeCallbacks(mDragFrame);
+            mDragFramePending = false;
+        }
 
         boolean newChecked = mChecked;
         if (commitChange) {
@@ -619,10 +846,16 @@ public class Switch extends CompoundButton
 
         final boolean toclick = (newChecked != mChecked ||
                            (SystemClock.uptimeMillis() - mStartClickTime) < MAX_CLICK_DURATION);
-        if (toclick) {
+        if (toclick && mInstantCommit) {
+            commitChecked(!mChecked);
+            callOnClick();
+        } else if (toclick) {
             callOnClick();
             Log.d(TAG, "<< callOnClick(), mThumbState:" + mThumbState);
             animateToWorkingState();
+            if (mOnToggleRequestListener != null && mPendingRequest == null) {
+                startToggleRequest(!mChecked);
+            }
         } else {
             // actually it's restoring
             animateToFinalState(mChecked, mChecked);
@@ -643,7 +876,7 @@ public class Switch extends CompoundButton
                 Log.d(TAG, "squash finished, keep: " + keep);
                 if (!keep) {
                     startRestoreAnim();
-                    mThumbState = ThumbState.TS_RESTORING;
+                    setThumbState(ThumbState.TS_RESTORING);
                 }
                 break;
             }
@@ -652,7 +885,7 @@ public class Switch extends CompoundButton
                     throw new IllegalArgumentException("invalid anim");
                 }
                 startRestoreAnim();
-                mThumbState = ThumbState.TS_RESTORING;
+                setThumbState(ThumbState.TS_RESTORING);
                 break;
             }
             case TS_RESTORING: {
@@ -660,7 +893,7 @@ public class Switch extends CompoundButton
                     throw new IllegalArgumentException("invalid anim");
                 }
                 Log.d(TAG, "TS_RESTORING, set TS_STOPPED here!");
-                mThumbState = ThumbState.TS_STOPPED;
+                setThumbState(ThumbState.TS_STOPPED);
                 break;
             }
             case TS_SQUASHING_TO_WORKING:
@@ -668,7 +901,7 @@ public class Switch extends CompoundButton
                     throw new IllegalArgumentException("invalid anim");
                 }
                 startWorkingAnim();
-                mThumbState = ThumbState.TS_WORKING;
+                setThumbState(ThumbState.TS_WORKING);
                 break;
             case TS_WORKING:
                 if (animator != mWorkingAnim) {
@@ -684,10 +917,10 @@ public class Switch extends CompoundButton
                 final boolean restoring = startRestoreAnim();
                 if (sliding || restoring) {
                     Log.d(TAG, "--> TS_WORKING_TO_FINAL here!");
-                    mThumbState = ThumbState.TS_WORKING_TO_FINAL;
+                    setThumbState(ThumbState.TS_WORKING_TO_FINAL);
                 } else {
                     setTouchable(true);
-                    mThumbState = ThumbState.TS_STOPPED;
+                    setThumbState(ThumbState.TS_STOPPED);
                 }
                 break;
             case TS_WORKING_TO_FINAL:
@@ -705,7 +938,7 @@ public class Switch extends CompoundButton
                 }
                 if (ended) {
                     setTouchable(true);
-                    mThumbState = ThumbState.TS_STOPPED;
+                    setThumbState(ThumbState.TS_STOPPED);
                 }
                 break;
             case TS_STOPPED: {
@@ -731,12 +964,19 @@ public class Switch extends CompoundButton
             return;
         }
         mChecked = new_check;
+        animateThumbToFinal();
+    }
+
+    /**
+     * Ends the squash/working animations and brings the thumb to the side of mChecked.
+     */
+    private void animateThumbToFinal() {
         switch (mThumbState) {
             case TS_SQUASHING:
                 setTouchable(false);
                 if (mSquashAnim.isRunning()) {
                     Log.d(TAG, "--> ThumbState.TS_SQUASHING_TO_FINAL");
-                    mThumbState = ThumbState.TS_SQUASHING_TO_FINAL;
+                    setThumbState(ThumbState.TS_SQUASHING_TO_FINAL);
                     break;
                 }
             case TS_STOPPED:
@@ -754,11 +994,11 @@ public class Switch extends CompoundButton
                 final boolean sliding = startSlidingAnim();
                 final boolean restoring = startRestoreAnim();
                 if (sliding || restoring) {
-                    mThumbState = ThumbState.TS_WORKING_TO_FINAL;
+                    setThumbState(ThumbState.TS_WORKING_TO_FINAL);
                 } else {
                     setTouchable(true);
                     Log.d(TAG, "set TS_STOPPED here!");
-                    mThumbState = ThumbState.TS_STOPPED;
+                    setThumbState(ThumbState.TS_STOPPED);
                 }
                 break;
             case TS_WORKING_TO_FINAL: {
@@ -766,7 +1006,8 @@ public class Switch extends CompoundButton
                 break;
             }
             default:
-                throw new IllegalArgumentException("Impossible: " + mThumbState);
+                recoverStuckState("animateThumbToFinal() in " + mThumbState);
+                break;
         }
         Log.d(TAG, "--> thumb-state: " + mThumbState);
     }
@@ -775,10 +1016,10 @@ public class Switch extends CompoundButton
         switch (mThumbState) {
             case TS_SQUASHING:
                 if (mSquashAnim.isRunning()) {
-                    mThumbState = ThumbState.TS_SQUASHING_TO_WORKING;
+                    setThumbState(ThumbState.TS_SQUASHING_TO_WORKING);
                 } else {
                     startWorkingAnim();
-                    mThumbState = ThumbState.TS_WORKING;
+                    setThumbState(ThumbState.TS_WORKING);
                 }
                 setTouchable(false);
                 break;
@@ -795,7 +1036,7 @@ public class Switch extends CompoundButton
             case TS_STOPPED: {
                 setTouchable(false);
                 startSquashAnim(SQUASHING_ANIM_DURATION);
-                mThumbState = ThumbState.TS_SQUASHING_TO_WORKING;                
+                setThumbState(ThumbState.TS_SQUASHING_TO_WORKING);
                 Log.d(TAG, "TS_STOPPED, should be a quick click, do sliding");
                 break;
             }
@@ -806,7 +1047,8 @@ public class Switch extends CompoundButton
                 break;
             }
             default:
-                throw new IllegalArgumentException("Impossible: " + mThumbState);
+                recoverStuckState("animateToWorkingState() in " + mThumbState);
+                break;
         }
         Log.d(TAG, "--> animateToWorkingState end, thumb-state: " + mThumbState);
     }
@@ -834,10 +1076,14 @@ public class Switch extends CompoundButton
     private ValueAnimator mRestoreAnim;
     private ValueAnimator mSlidingAnim;
 
+    // Not shown: animations jump to their end and the spinner stops, see updateSuspended()
+    private boolean mAttached = false;
+    private boolean mSuspended = false;
+
     private void startSquashAnim(int duration) {
         mSquashAnim =
                 ObjectAnimator.ofInt(mThumbDrawable, "level", THUMB_SQUASH_RATIO);
-        mSquashAnim.setDuration(duration);
+        mSquashAnim.setDuration(getAnimDuration(duration));
         mSquashAnim.addListener(this);
         mSquashAnim.addUpdateListener(this);
         mSquashAnim.start();
@@ -860,6 +1106,15 @@ public class Switch extends CompoundButton
         // mRestoreAnim.addUpdateListener(this);
         // mRestoreAnim.start();
 
+        mThumbDrawable.setOnWorking(true, !mChecked);
+        if (mSuspended) {
+            // started by updateSuspended() once shown again
+            return;
+        }
+        if (SwitchQuality.getTier() == SwitchQuality.Tier.MINIMAL) {
+            // the spinner is not drawn
+            return;
+        }
         final int level = mChecked ? 0  : 10000;
         mWorkingAnim = ObjectAnimator.ofInt(mThumbDrawable, "workingLevel", level);
         mWorkingAnim.setDuration(700);
@@ -869,7 +1124,6 @@ public class Switch extends CompoundButton
         mWorkingAnim.setRepeatMode(ValueAnimator.RESTART);
         mWorkingAnim.setRepeatCount(ValueAnimator.INFINITE);
         mWorkingAnim.start();
-        mThumbDrawable.setOnWorking(true, !mChecked);
     }
 
     private boolean startRestoreAnim() {
@@ -880,7 +1134,7 @@ public class Switch extends CompoundButton
         final int duration = level * 150 / THUMB_SQUASH_RATIO;
         mRestoreAnim = ObjectAnimator.ofInt(mThumbDrawable, "level", 0);
         Log.d(TAG, "-->startRestoreAnim, duration:" + duration);
-        mRestoreAnim.setDuration(duration);
+        mRestoreAnim.setDuration(getAnimDuration(duration));
         mRestoreAnim.addListener(this);
         mRestoreAnim.addUpdateListener(this);
         mRestoreAnim.start();
@@ -903,13 +1157,88 @@ public class Switch extends CompoundButton
         mSlidingAnim = ObjectAnimator.ofFloat(this, "thumbPosition", position);
         mSlidingAnim.setInterpolator(new QuinticBezierInterpolator());
         Log.d(TAG, "-->startSlidingAnim, duration:" + duration);
-        mSlidingAnim.setDuration(duration);
+        mSlidingAnim.setDuration(getAnimDuration(duration));
         mSlidingAnim.addListener(this);
         mSlidingAnim.addUpdateListener(this);
         mSlidingAnim.start();
         return true;
     }
 
+    /**
+     * @return {@code duration}, or 0 while suspended or in {@link SwitchQuality.Tier#MINIMAL}
+     *         so the animation ends on the next frame and the state machine moves on
+     *         without drawing the frames in between.
+     */
+    private int getAnimDuration(int duration) {
+        return mSuspended || SwitchQuality.getTier() == SwitchQuality.Tier.MINIMAL ? 0 : duration;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttached = true;
+        SwitchQuality.refresh(getContext());
+        updateSuspended();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mAttached = false;
+        removeCallbacks(mPressSquash);
+        removeCallbacks(mDragFrame);
+        mDragFramePending = false;
+        updateSuspended();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateSuspended();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateSuspended();
+    }
+
+    /**
+     * Suspends the thumb animations while the switch cannot be seen: detached, hidden
+     * itself or through a parent, or in a window that is not visible (e.g. the activity
+     * is stopped or the screen is off). The squash, restore and sliding animations jump to
+     * their end, driving the thumb to the state it would have reached; the infinite
+     * working animation is stopped and restarted once the switch is shown again.
+     */
+    private void updateSuspended() {
+        if (mThumbDrawable == null) {
+            // called by the View constructor
+            return;
+        }
+        final boolean suspended = !mAttached || getWindowVisibility() != VISIBLE || !isShown();
+        if (suspended == mSuspended) {
+            return;
+        }
+        mSuspended = suspended;
+        if (suspended) {
+            // end() runs the state machine, whatever it starts next is 0 long
+            endAnim(mSquashAnim);
+            endAnim(mRestoreAnim);
+            endAnim(mSlidingAnim);
+            cancelAnim(mWorkingAnim);
+        } else if (mThumbState == ThumbState.TS_WORKING
+                   && (mWorkingAnim == null || !mWorkingAnim.isRunning())) {
+            startWorkingAnim();
+        }
+        Log.d(TAG, "suspended: " + suspended + " thumb-state: " + mThumbState);
+    }
+
+    private static void endAnim(ValueAnimator anim) {
+        if (anim != null && anim.isRunning()) {
+            anim.end();
+        }
+    }
+
     private boolean getTargetCheckedState() {
         return mThumbPosition >= getThumbScrollRange() / 2;
     }
@@ -927,18 +1256,394 @@ public class Switch extends CompoundButton
     @Override
     public void toggle() {
         Log.d(TAG, "--> toggle() current checked: " + mChecked);
+        if (mInstantCommit) {
+            commitChecked(!mChecked);
+            return;
+        }
+        if (mPendingRequest != null) {
+            mDesiredChecked = !mDesiredChecked;
+            Log.d(TAG, "request pending, now wanting: " + mDesiredChecked);
+            return;
+        }
         animateToWorkingState();
+        if (mOnToggleRequestListener != null) {
+            startToggleRequest(!mChecked);
+        }
+    }
+
+    /**
+     * Interface definition for a callback to be invoked when the user asks for the
+     * checked state of a switch to change.
+     */
+    public interface OnToggleRequestListener {
+        /**
+         * Called when a tap or a drag asks for a new state. The switch shows its working
+         * spinner until {@code request} is resolved or times out.
+         *
+         * @param view The switch the user touched.
+         * @param request The pending change; resolve it with {@link ToggleRequest#succeed()}
+         *            or {@link ToggleRequest#fail()}.
+         */
+        void onToggleRequested(Switch view, ToggleRequest request);
+    }
+
+    /**
+     * Routes user toggles through {@link ToggleRequest}s instead of waiting for the app
+     * to call {@link #setChecked(boolean)}.
+     */
+    public void setOnToggleRequestListener(OnToggleRequestListener listener) {
+        mOnToggleRequestListener = listener;
+    }
+
+    /**
+     * Sets how long a {@link ToggleRequest} may stay unresolved before the thumb goes
+     * back to its previous state. 0 waits forever.
+     */
+    public void setToggleTimeout(long timeoutMillis) {
+        mToggleTimeoutMillis = timeoutMillis;
+    }
+
+    public long getToggleTimeout() {
+        return mToggleTimeoutMillis;
+    }
+
+    /**
+     * @return The request currently waiting to be resolved, or null.
+     */
+    public ToggleRequest getPendingRequest() {
+        return mPendingRequest;
+    }
+
+    private void startToggleRequest(boolean checked) {
+        mDesiredChecked = checked;
+        mPendingRequest = new ToggleRequest(this, checked);
+        if (mToggleTimeoutMillis > 0) {
+            postDelayed(mToggleTimeout, mToggleTimeoutMillis);
+        }
+        mOnToggleRequestListener.onToggleRequested(this, mPendingRequest);
+    }
+
+    private void clearPendingRequest() {
+        if (mPendingRequest != null) {
+            removeCallbacks(mToggleTimeout);
+            // releases threads blocked in get(), a no-op if it was already resolved
+            mPendingRequest.abandon();
+            mPendingRequest = null;
+        }
+    }
+
+    void onToggleRequestFinished(ToggleRequest request) {
+        if (request != mPendingRequest) {
+            Log.d(TAG, "stale toggle request, ignored");
+            return;
+        }
+        clearPendingRequest();
+        if (!request.isSucceeded()) {
+            Log.d(TAG, "toggle request failed, timed out: " + request.isTimedOut());
+            animateThumbToFinal();
+            return;
+        }
+        final boolean checked = request.getRequestedState();
+        if (mDesiredChecked != checked) {
+            // the user tapped again meanwhile, keep working and ask for the last wish
+            mChecked = checked;
+            dispatchCheckedChanged();
+            startToggleRequest(mDesiredChecked);
+            return;
+        }
+        animateToFinalState(mChecked, checked);
+        dispatchCheckedChanged();
     }
 
     @Override
     public void setChecked(boolean checked) {
         Log.d(TAG, "--> setChecked(), checked: " + checked + " mInvalidate:" + mInvalidate);
+        // an explicit state wins over a pending request
+        clearPendingRequest();
         if (mInvalidate) {
+            if (mInstantCommit) {
+                interruptFinalAnims();
+            }
             animateToFinalState(mChecked, checked);
         }
         mChecked = checked;
     }
 
+    @Override
+    public void setOnCheckedChangeListener(OnCheckedChangeListener listener) {
+        super.setOnCheckedChangeListener(listener);
+        mOnCheckedChangeListener = listener;
+    }
+
+    OnCheckedChangeListener getOnCheckedChangeListener() {
+        return mOnCheckedChangeListener;
+    }
+
+    /**
+     * In instant commit mode a tap or a drag changes the checked state and notifies the
+     * {@link OnCheckedChangeListener} as soon as the finger is released; the thumb then
+     * animates to its final position on its own. There is no "working" state waiting for
+     * {@link #setChecked(boolean)} to be called back.
+     *
+     * @attr ref R.styleable#Switch_asb_instantCommit
+     */
+    public void setInstantCommit(boolean instantCommit) {
+        mInstantCommit = instantCommit;
+    }
+
+    public boolean isInstantCommit() {
+        return mInstantCommit;
+    }
+
+    /**
+     * Draws the switch at rest from a picture shared with the switches looking the same,
+     * e.g. the rows of a flinging list, instead of drawing its tracks, label and thumb. A
+     * touch or an animation draws it in full until it rests again. Switches whose style
+     * could not be shared, that were restyled or whose bitmaps are hardware ones, see
+     * {@link SwitchBitmaps#setHardwareBitmaps(boolean)}, are always drawn in full.
+     *
+     * @attr ref R.styleable#Switch_asb_snapshot
+     */
+    public void setSnapshotEnabled(boolean enabled) {
+        mSnapshotEnabled = enabled;
+        invalidate();
+    }
+
+    public boolean isSnapshotEnabled() {
+        return mSnapshotEnabled;
+    }
+
+    private void commitChecked(boolean checked) {
+        interruptFinalAnims();
+        animateToFinalState(mChecked, checked);
+        dispatchCheckedChanged();
+    }
+
+    private void dispatchCheckedChanged() {
+        refreshDrawableState();
+        if (mOnCheckedChangeListener != null && !mBroadcasting) {
+            mBroadcasting = true;
+            mOnCheckedChangeListener.onCheckedChanged(this, mChecked);
+            mBroadcasting = false;
+        }
+    }
+
+    /**
+     * Stops the thumb where it is if it is still settling after a previous change, so a
+     * new change can start from there.
+     */
+    private void interruptFinalAnims() {
+        if (mThumbState != ThumbState.TS_WORKING_TO_FINAL && mThumbState != ThumbState.TS_RESTORING) {
+            return;
+        }
+        if (mSlidingAnim != null && mSlidingAnim.isRunning()) {
+            mSlidingAnim.removeListener(this);
+            mSlidingAnim.cancel();
+        }
+        if (mRestoreAnim != null && mRestoreAnim.isRunning()) {
+            mRestoreAnim.removeListener(this);
+            mRestoreAnim.cancel();
+        }
+        setThumbState(ThumbState.TS_STOPPED);
+    }
+
+    /**
+     * Sets the checked state from any thread. Only the newest value posted is kept and
+     * it is applied on the UI thread at most once per frame: values superseded before
+     * the next frame are never shown, and a value arriving while the thumb is still
+     * moving makes it jump instead of queueing another animation. Useful to mirror
+     * state pushed at a high rate, e.g. by a device.
+     *
+     * @param checked The new checked state.
+     */
+    public void postChecked(boolean checked) {
+        mPostedChecked.set(checked ? 1 : 0);
+        if (mPostedCheckedScheduled.compareAndSet(false, true)) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                postOnAnimationCompat(mApplyPostedChecked);
+            } else {
+                sMainHandler.post(mSchedulePostedChecked);
+            }
+        }
+    }
+
+    private void applyPostedChecked() {
+        final int posted = mPostedChecked.getAndSet(POSTED_NONE);
+        if (posted == POSTED_NONE) {
+            return;
+        }
+        final boolean checked = posted == 1;
+        if (mTouchMode != TOUCH_MODE_IDLE) {
+            // the finger is on the thumb, try again next frame unless a newer value came
+            if (mPostedChecked.compareAndSet(POSTED_NONE, posted)
+                    && mPostedCheckedScheduled.compareAndSet(false, true)) {
+                postOnAnimationCompat(mApplyPostedChecked);
+            }
+            return;
+        }
+        if (mThumbState == ThumbState.TS_STOPPED) {
+            setChecked(checked);
+        } else if (checked != mChecked || mPendingRequest != null) {
+            clearPendingRequest();
+            jumpToCheckedState(checked);
+        }
+    }
+
+    /**
+     * Interface definition for a callback to be invoked when the watchdog of a switch
+     * had to bring back a thumb that never settled.
+     */
+    public interface OnStuckListener {
+        /**
+         * Called once the switch is usable again, stopped on its last committed state.
+         *
+         * @param view The recovered switch.
+         * @param state The thumb state it was stuck in.
+         * @param stuckMillis How long the thumb had been moving, squashed or working.
+         */
+        void onStuck(Switch view, ThumbState state, long stuckMillis);
+    }
+
+    public void setOnStuckListener(OnStuckListener listener) {
+        mOnStuckListener = listener;
+    }
+
+    /**
+     * Sets how long the thumb may stay away from its resting state, e.g. spinning
+     * after {@link #toggle()} while the app never calls {@link #setChecked(boolean)},
+     * before the watchdog stops it. Time spent under the finger or waiting on a
+     * {@link ToggleRequest}, which has its own timeout, does not count.
+     * 0, the default, disables the watchdog.
+     */
+    public void setStuckTimeout(long timeoutMillis) {
+        mStuckTimeoutMillis = timeoutMillis;
+        removeCallbacks(mWatchdog);
+        if (timeoutMillis > 0 && mThumbState != ThumbState.TS_STOPPED) {
+            postDelayed(mWatchdog, Math.max(0, mBusySince + timeoutMillis - SystemClock.uptimeMillis()));
+        }
+    }
+
+    public long getStuckTimeout() {
+        return mStuckTimeoutMillis;
+    }
+
+    private void setThumbState(ThumbState state) {
+        if (state == ThumbState.TS_STOPPED) {
+            removeCallbacks(mWatchdog);
+        } else if (mThumbState == ThumbState.TS_STOPPED) {
+            SwitchQuality.refresh(getContext());
+            mBusySince = SystemClock.uptimeMillis();
+            if (mStuckTimeoutMillis > 0) {
+                postDelayed(mWatchdog, mStuckTimeoutMillis);
+            }
+        }
+        mThumbState = state;
+    }
+
+    /**
+     * Stops every animation and rests the thumb on mChecked, the last state the app
+     * committed. A pending toggle request times out, as if its own deadline passed.
+     */
+    private void recoverStuckState(String reason) {
+        final ThumbState state = mThumbState;
+        final long stuckMillis = state == ThumbState.TS_STOPPED
+                ? 0 : SystemClock.uptimeMillis() - mBusySince;
+        Log.w(TAG, "recovering thumb stuck in " + state + " for " + stuckMillis + " ms, " + reason);
+        final ToggleRequest request = mPendingRequest;
+        if (request != null) {
+            request.timeOut();
+            clearPendingRequest();
+        }
+        jumpToCheckedState(mChecked);
+        if (mOnStuckListener != null) {
+            mOnStuckListener.onStuck(this, state, stuckMillis);
+        }
+    }
+
+    /**
+     * Ends every thumb animation and shows {@code checked} right away.
+     */
+    private void jumpToCheckedState(boolean checked) {
+        cancelAnim(mSquashAnim);
+        cancelAnim(mWorkingAnim);
+        cancelAnim(mRestoreAnim);
+        cancelAnim(mSlidingAnim);
+        mChecked = checked;
+        mThumbDrawable.setOnWorking(false, !checked);
+        mThumbDrawable.setLevel(0);
+        mThumbPosition = checked ? getThumbScrollRange() : 0;
+        setThumbState(ThumbState.TS_STOPPED);
+        setTouchable(true);
+        refreshDrawableState();
+        invalidate();
+    }
+
+    private void cancelAnim(ValueAnimator anim) {
+        // started, not only running: also an animator that has not drawn its first frame
+        if (anim != null && anim.isStarted()) {
+            anim.removeListener(this);
+            anim.cancel();
+        }
+    }
+
+    /**
+     * Shows {@code checked} without any animation, for switches being bound to new data,
+     * e.g. recycled in a list. Thumb position, squash, track alpha and spinner jump to
+     * their final values, whatever the switch was doing for its previous data; a pending
+     * {@link ToggleRequest} is abandoned. Only a switch already at rest on
+     * {@code checked} is left alone. Use {@link #rebindChecked(boolean)} for the same data.
+     *
+     * @param checked The checked state to show.
+     */
+    public void bindChecked(boolean checked) {
+        mPostedChecked.set(POSTED_NONE);
+        if (checked == mChecked && mPendingRequest == null && mThumbState == ThumbState.TS_STOPPED
+                && mTouchMode == TOUCH_MODE_IDLE) {
+            return;
+        }
+        clearPendingRequest();
+        if (mTouchMode != TOUCH_MODE_IDLE) {
+            removeCallbacks(mPressSquash);
+            removeCallbacks(mDragFrame);
+            mDragFramePending = false;
+            mTouchMode = TOUCH_MODE_IDLE;
+            mVelocityTracker.clear();
+        }
+        jumpToCheckedState(checked);
+    }
+
+    /**
+     * Shows {@code checked} for the data the switch is already bound to, e.g. a
+     * preference rebound after the user toggled it. A thumb resting on or settling to
+     * {@code checked} keeps its animation, a pending {@link ToggleRequest} is left to
+     * finish, and a switch waiting for the app to commit takes {@code checked} as that
+     * commit. Otherwise the switch jumps like {@link #bindChecked(boolean)}.
+     *
+     * @param checked The checked state to show.
+     */
+    public void rebindChecked(boolean checked) {
+        if (mPendingRequest != null) {
+            return;
+        }
+        if (isWaitingForCommit()) {
+            if (checked != mChecked) {
+                setChecked(checked);
+            }
+            return;
+        }
+        if (checked == mChecked) {
+            return;
+        }
+        bindChecked(checked);
+    }
+
+    /**
+     * @return true if the thumb is working, waiting for {@link #setChecked(boolean)}.
+     */
+    private boolean isWaitingForCommit() {
+        return mThumbState == ThumbState.TS_WORKING || mThumbState == ThumbState.TS_SQUASHING_TO_WORKING;
+    }
+
     public void setCheckedOnly(boolean checked) {
         mChecked = checked;
         invalidate();
@@ -993,57 +1698,6 @@ public class Switch extends CompoundButton
         initThumbBitmap();
     }
 
-    private static final int WIDTH = 1000;
-    private static final int HEIGHT = 1;
-    private static final int COUNT = (WIDTH + 1) * (HEIGHT + 1);
-
-    private final float[] mVerts = new float[COUNT * 2];
-    private final float[] mOrigs = new float[COUNT * 2];
-    
-    static void setXY(float[] array, int index, float x, float y) {
-        array[index * 2 + 0] = x;
-        array[index * 2 + 1] = y;
-    }
-
-    static float getX(float[] array, int index) {
-        return array[index * 2 + 0];
-    }
-
-    static float getY(float[] array, int index) {
-        return array[index * 2 + 1];
-    }
-
-    void initMatrix(float bitmap_w, float bitmap_h) {
-        int index = 0;
-        for (int y = 0; y <= HEIGHT; y++) {
-            float fy = bitmap_h * y / HEIGHT;
-            float fx = 0.0f;
-            for (int x = 0; x <= WIDTH; x++) {
-                fx += bitmap_w / WIDTH;
-                setXY(mOrigs, index, fx, fy);
-                setXY(mVerts, index, fx, fy);
-                index += 1;
-            }
-        }
-    }
-
-    private void squashMatrix(float dia) {
-        int index = 0;
-        float w = dia + dia * mThumbSquashRatio;
-        for (int y = 0; y <= HEIGHT; y++) {
-            float fx = 0.0f;
-            float fy = dia * y / HEIGHT;
-            for (int x = 0; x <= WIDTH; x++) {
-                fx += dia / WIDTH;
-                if (x == WIDTH/2) {
-                    fx += (w - dia);
-                }
-                setXY(mVerts, index, fx, fy);
-                index += 1;
-            }
-        }
-    }
-
     private void initThumbBitmap() {
         final int dia = mThumbWidth;
         // mThumbBitmap = Bitmap.createScaledBitmap(((BitmapDrawable) mThumbDrawable).getBitmap(), dia, dia, false);
@@ -1051,39 +1705,68 @@ public class Switch extends CompoundButton
         // initMatrix(mThumbWidth, mThumbDrawable.getIntrinsicHeight());
     }
 
-    private void drawDisabled(Canvas canvas) {
+    /**
+     * @return false if the style has no disabled image, e.g. a procedural one, which then
+     *         draws its tracks and thumb faded by {@code ?android:attr/disabledAlpha}.
+     */
+    private boolean drawDisabled(SwitchCanvas canvas) {
         final int switchLeft = mSwitchLeft;
         final int switchTop = mSwitchTop;
         final int switchRight = mSwitchRight;
         final int switchBottom = mSwitchBottom;
-        Drawable drawable = mChecked ? mDisabledRight : mDisabledLeft;
-        drawable.setBounds(switchLeft, switchTop, switchRight, switchBottom);
-        drawable.draw(canvas);
+        Drawable drawable;
+        if (mChecked) {
+            if (mDisabledRight == null) {
+                mDisabledRight = SwitchStyle.loadDrawable(getResources(), mDisabledRightId);
+            }
+            drawable = mDisabledRight;
+        } else {
+            if (mDisabledLeft == null) {
+                mDisabledLeft = SwitchStyle.loadDrawable(getResources(), mDisabledLeftId);
+            }
+            drawable = mDisabledLeft;
+        }
+        if (drawable == null) {
+            return false;
+        }
+        mDrawBounds.set(switchLeft, switchTop, switchRight, switchBottom);
+        canvas.drawDrawable(drawable, mDrawBounds);
+        return true;
     }
 
-    private void drawTracks(int alpha, Canvas canvas) {
+    /**
+     * @param alpha How far the on track shows through the off one, 0 to 255.
+     * @param fade The alpha of both tracks, e.g. disabled.
+     */
+    private void drawTracks(int alpha, int fade, boolean crossfade, SwitchCanvas canvas) {
         final int switchLeft = mSwitchLeft;
         final int switchTop = mSwitchTop;
         final int switchRight = mSwitchRight;
         final int switchBottom = mSwitchBottom;
 
-        mOnTrackDrawable.setBounds(switchLeft, switchTop, switchRight, switchBottom);
-        mOffTrackDrawable.setBounds(switchLeft, switchTop, switchRight, switchBottom);
+        mDrawBounds.set(switchLeft, switchTop, switchRight, switchBottom);
         if (alpha < 0) {
             alpha = 0;
         }
         if (alpha > 255) {
             alpha = 255;
         }
-        mOnTrackDrawable.setAlpha(alpha);
-        mOffTrackDrawable.setAlpha(255-alpha);
+        if (!crossfade) {
+            // only the track the thumb is closest to
+            final Drawable track = alpha > 127 ? mOnTrackDrawable : mOffTrackDrawable;
+            track.setAlpha(fade);
+            canvas.drawDrawable(track, mDrawBounds);
+            return;
+        }
+        mOnTrackDrawable.setAlpha(alpha * fade / 255);
+        mOffTrackDrawable.setAlpha((255-alpha) * fade / 255);
 
         if (alpha > 127) {
-            mOffTrackDrawable.draw(canvas);
-            mOnTrackDrawable.draw(canvas);
+            canvas.drawDrawable(mOffTrackDrawable, mDrawBounds);
+            canvas.drawDrawable(mOnTrackDrawable, mDrawBounds);
         } else {
-            mOnTrackDrawable.draw(canvas);
-            mOffTrackDrawable.draw(canvas);
+            canvas.drawDrawable(mOnTrackDrawable, mDrawBounds);
+            canvas.drawDrawable(mOffTrackDrawable, mDrawBounds);
         }
     }
 
@@ -1105,17 +1788,19 @@ public class Switch extends CompoundButton
         mThumbDistance = (switchInnerRight - switchInnerLeft - thumbWidth);
     }
 
-    private void drawOnOffText(Canvas canvas, final int thumbLeft, final int thumbRight,
+    private void drawOnOffText(SwitchCanvas canvas, final int thumbLeft, final int thumbRight,
                                final int switchInnerTop, final int switchInnerBottom) {
         if (mDrawText == false) {
             return;
         }
+        final Layout switchText = getTargetCheckedState() ? mOnLayout : mOffLayout;
+
+        // The layout may be shared with other switches, see SwitchStyle.getLayout()
+        final TextPaint paint = switchText.getPaint();
         if (mTextColors != null) {
-            mTextPaint.setColor(mTextColors.getColorForState(getDrawableState(), mTextColors.getDefaultColor()));
+            paint.setColor(mTextColors.getColorForState(getDrawableState(), mTextColors.getDefaultColor()));
         }
-        mTextPaint.drawableState = getDrawableState();
-
-        final Layout switchText = getTargetCheckedState() ? mOnLayout : mOffLayout;
+        paint.drawableState = getDrawableState();
 
         canvas.save();
         // canvas.clipRect(switchInnerLeft, switchTop, switchInnerRight, switchTop + mSwitchHeightWithShadow);
@@ -1124,7 +1809,7 @@ public class Switch extends CompoundButton
         final int text_y = (switchInnerTop + switchInnerBottom) / 2 - switchText.getHeight() / 2;
         canvas.translate(text_x, text_y);
         // canvas.drawRect(0, 0, switchText.getWidth(), switchText.getHeight(), paint);
-        switchText.draw(canvas);
+        canvas.drawLayout(switchText);
         canvas.restore();
 
     }
@@ -1133,8 +1818,77 @@ public class Switch extends CompoundButton
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        if (!isEnabled()) {
-            drawDisabled(canvas);
+        if (drawSnapshot(canvas)) {
+            return;
+        }
+
+        // animated frames tell SwitchQuality what this device can afford
+        final boolean measure = mThumbState != ThumbState.TS_STOPPED && SwitchQuality.isMeasuring();
+        if (measure && SwitchQuality.hasFrameTiming()) {
+            SwitchQuality.onAnimatedFrame();
+        }
+        final boolean timeDraw = measure && !SwitchQuality.hasFrameTiming();
+        final long start = timeDraw ? System.nanoTime() : 0;
+        mSwitchCanvas.setCanvas(canvas);
+        drawSwitch(mSwitchCanvas);
+        mSwitchCanvas.setCanvas(null);
+        if (timeDraw) {
+            SwitchQuality.addSample(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Draws the switch from its picture in SwitchSnapshots, rendering it first if no other
+     * switch did.
+     *
+     * @return false if the switch is not at rest, or cannot be drawn from a picture.
+     */
+    private boolean drawSnapshot(Canvas canvas) {
+        if (!mSnapshotEnabled || mSnapshotStyle == null || SwitchBitmaps.isHardwareBitmaps()) {
+            return false;
+        }
+        if (mThumbState != ThumbState.TS_STOPPED || mTouchMode != TOUCH_MODE_IDLE
+                || mThumbDrawable.getLevel() != 0) {
+            return false;
+        }
+        final boolean right = mThumbPosition != 0;
+        if (right && mThumbPosition != getThumbScrollRange()) {
+            return false;
+        }
+        final int width = mSwitchRight - mSwitchLeft;
+        final int height = mSwitchHeightWithShadow;
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+
+        final Layout text = mDrawText ? (getTargetCheckedState() ? mOnLayout : mOffLayout) : null;
+        final int[] state = getDrawableState();
+        final int textColor = text == null || mTextColors == null ? 0
+                : mTextColors.getColorForState(state, mTextColors.getDefaultColor());
+        mSnapshotKey.set(mSnapshotStyle, width, height, state, text, textColor, right);
+        Bitmap snapshot = SwitchSnapshots.get(mSnapshotKey);
+        if (snapshot == null) {
+            snapshot = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            final Canvas snapshotCanvas = new Canvas(snapshot);
+            snapshotCanvas.translate(-mSwitchLeft, -mSwitchTop);
+            mSwitchCanvas.setCanvas(snapshotCanvas);
+            drawSwitch(mSwitchCanvas);
+            mSwitchCanvas.setCanvas(null);
+            SwitchSnapshots.put(mSnapshotKey, snapshot);
+        }
+        canvas.drawBitmap(snapshot, mSwitchLeft, mSwitchTop, null);
+        return true;
+    }
+
+    /**
+     * Draws the track, the label and the thumb of the switch, without the
+     * {@link CompoundButton} parts. {@link #onDraw(Canvas)} goes through here with a
+     * canvas backed by the framework one.
+     *
+     * @param canvas The target, e.g. a {@link SoftwareSwitchCanvas} for pixel-exact rendering in tests.
+     */
+    public void drawSwitch(SwitchCanvas canvas) {
+        if (!isEnabled() && drawDisabled(canvas)) {
             return;
         }
 
@@ -1175,7 +1929,11 @@ public class Switch extends CompoundButton
         //      switchInnerLeft + " switchInnerRight: " + switchInnerRight);
         // Log.d(TAG, "thumbDistance: " + thumbDistance + " thumbWidth: " + thumbWidth);
 
-        drawTracks(alpha, canvas);
+        // without disabled images, e.g. procedural, a disabled switch is drawn faded
+        final int fade = isEnabled() ? 255 : mDisabledAlpha;
+        final SwitchQuality.Tier tier = SwitchQuality.getTier();
+        mThumbDrawable.setTier(tier);
+        drawTracks(alpha, fade, tier == SwitchQuality.Tier.FULL, canvas);
         canvas.clipRect(switchInnerLeft, switchTop, switchInnerRight, switchTop+mSwitchHeightWithShadow);
 
         // mThumbDrawable.setBounds(thumbLeft, thumbTop, thumbRight, thumbBottom);
@@ -1191,6 +1949,7 @@ public class Switch extends CompoundButton
 
         canvas.translate(thumbLeft, thumbTop);
         mThumbDrawable.setPosition(10000 * thumbPos / thumbDistance);
+        mThumbDrawable.setAlpha(fade);
         mThumbDrawable.draw(canvas);
         canvas.restore();
 
@@ -1239,20 +1998,39 @@ public class Switch extends CompoundButton
         // Drawable may be null when checked state is set from XML, from super constructor
         if (mThumbDrawable != null) mThumbDrawable.setState(myDrawableState);
         if (mOnTrackDrawable != null) mOnTrackDrawable.setState(myDrawableState);
+        applyTints(myDrawableState);
 
         invalidate();
     }
 
+    private void applyTints(int[] state) {
+        if (mThumbTint != null) {
+            mThumbDrawable.setTint(mThumbTint.getColorForState(state, mThumbTint.getDefaultColor()));
+        }
+        if (mTrackTint != null) {
+            // both tracks are drawn while the thumb moves, each keeps the color of its side
+            mOnTrackDrawable.setColorFilter(SwitchTint.getFilter(SwitchTint.getColor(mTrackTint, state, true)));
+            mOffTrackDrawable.setColorFilter(SwitchTint.getFilter(SwitchTint.getColor(mTrackTint, state, false)));
+        }
+    }
+
     @Override
     protected boolean verifyDrawable(Drawable who) {
         return super.verifyDrawable(who) || who == mThumbDrawable || who == mOnTrackDrawable;
     }
 
-    // XXX Was on the Android source, but had to comment it out (doesn't exist in 2.1). -- BoD
-    // @Override
-    // public void jumpDrawablesToCurrentState() {
-    //     super.jumpDrawablesToCurrentState();
-    //     mThumbDrawable.jumpToCurrentState();
-    //     mOnTrackDrawable.jumpToCurrentState();
-    // }
+    // Only called by the framework from Honeycomb on, e.g. when a list reuses the view.
+    @SuppressLint("NewApi")
+    @Override
+    public void jumpDrawablesToCurrentState() {
+        super.jumpDrawablesToCurrentState();
+        mThumbDrawable.jumpToCurrentState();
+        mOnTrackDrawable.jumpToCurrentState();
+        mOffTrackDrawable.jumpToCurrentState();
+        // a squash no finger holds anymore; slides, spinners and requests may be the
+        // user's own toggle of the same data, bindChecked() handles new data
+        if (mThumbState == ThumbState.TS_SQUASHING && mTouchMode == TOUCH_MODE_IDLE) {
+            jumpToCheckedState(mChecked);
+        }
+    }
 }
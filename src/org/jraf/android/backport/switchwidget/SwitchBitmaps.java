@@ -0,0 +1,225 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.annotation.SuppressLint;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.NinePatch;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.NinePatchDrawable;
+import android.os.Build;
+import android.util.Log;
+import android.util.TypedValue;
+
+/**
+ * Decodes the bitmaps of the switches, thumb, tracks, spinner and disabled images, in the
+ * format chosen by the app, and keeps count of the memory they take.
+ * <p>
+ * Like the drawable cache of the framework, a decoded file is shared by every
+ * {@link Resources} resolving the resource to it, e.g. those of the activities of a same
+ * configuration.
+ * <p>
+ * Only bitmap and 9-patch resources are decoded here; the images inside an XML
+ * drawable, e.g. the default holo selectors, keep the framework defaults. Set the format
+ * before the first switch is built, e.g. in {@code Application.onCreate()}, or the
+ * switches built earlier keep their bitmaps.
+ */
+public final class SwitchBitmaps {
+    private static final String TAG = "SwitchBitmaps";
+
+    // Android O, the first release with Bitmap.Config.HARDWARE, above the SDK the library
+    // compiles against
+    private static final int HARDWARE_SDK = 26;
+
+    private static Bitmap.Config sConfig = Bitmap.Config.ARGB_8888;
+    private static boolean sHardware = false;
+
+    // asset cookie and path of a resource file -> its decoded drawable
+    private static final Map<String, Drawable.ConstantState> sDecoded =
+            new HashMap<String, Drawable.ConstantState>();
+
+    // resource id and density of a decoded file -> its name and bytes
+    private static final Map<Long, Asset> sBytes = new HashMap<Long, Asset>();
+
+    private static final class Asset {
+        final String name;
+        final int density;
+        final int bytes;
+
+        Asset(String name, int density, int bytes) {
+            this.name = name;
+            this.density = density;
+            this.bytes = bytes;
+        }
+    }
+
+    private SwitchBitmaps() {
+    }
+
+    /**
+     * Sets the format of the switch bitmaps. {@link Bitmap.Config#ARGB_4444} halves their
+     * memory where the art allows it. An asset the decoder cannot give in that format,
+     * e.g. one with alpha in {@link Bitmap.Config#RGB_565}, keeps ARGB_8888.
+     */
+    public static void setBitmapConfig(Bitmap.Config config) {
+        synchronized (SwitchBitmaps.class) {
+            if (config == null) {
+                throw new IllegalArgumentException("config is null");
+            }
+            sConfig = config;
+        }
+        SwitchStyle.clear();
+    }
+
+    public static synchronized Bitmap.Config getBitmapConfig() {
+        return sConfig;
+    }
+
+    /**
+     * Keeps the switch bitmaps in graphics memory only, from Android O on; elsewhere the
+     * format of {@link #setBitmapConfig(Bitmap.Config)} is used. Hardware bitmaps cannot
+     * be drawn by a software canvas, so leave it off for switches drawn into a bitmap or
+     * in a software layer.
+     */
+    public static void setHardwareBitmaps(boolean hardware) {
+        synchronized (SwitchBitmaps.class) {
+            sHardware = hardware;
+        }
+        SwitchStyle.clear();
+    }
+
+    /**
+     * @return true if the switch bitmaps are decoded as hardware bitmaps on this device.
+     */
+    public static synchronized boolean isHardwareBitmaps() {
+        return sHardware && Build.VERSION.SDK_INT >= HARDWARE_SDK;
+    }
+
+    /**
+     * @return The bytes taken by each switch asset decoded so far, by resource entry name
+     *         and density of the decoded file, e.g. {@code switch_thumb_holo_light@320}.
+     */
+    public static Map<String, Integer> getAssetBytes() {
+        final Map<String, Integer> bytes = new HashMap<String, Integer>();
+        synchronized (sBytes) {
+            for (Asset asset : sBytes.values()) {
+                bytes.put(asset.name + "@" + asset.density, asset.bytes);
+            }
+        }
+        return Collections.unmodifiableMap(bytes);
+    }
+
+    /**
+     * @return The sum of {@link #getAssetBytes()}.
+     */
+    public static long getTotalBytes() {
+        long total = 0;
+        synchronized (sBytes) {
+            for (Asset asset : sBytes.values()) {
+                total += asset.bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Decodes the bitmap or 9-patch resource {@code id} in the chosen format, unless the
+     * file it resolves to was already decoded.
+     *
+     * @return null if {@code id} is not a bitmap, e.g. an XML drawable.
+     */
+    static Drawable decode(Resources res, int id) {
+        final TypedValue value = new TypedValue();
+        res.getValue(id, value, true);
+        if (value.string == null || value.string.toString().endsWith(".xml")) {
+            return null;
+        }
+        final String file = value.assetCookie + ":" + value.string;
+        final Drawable.ConstantState state;
+        synchronized (sDecoded) {
+            state = sDecoded.get(file);
+        }
+        if (state != null) {
+            return state.newDrawable(res);
+        }
+
+        final InputStream is = res.openRawResource(id, value);
+        try {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = getDecodeConfig();
+            final Rect padding = new Rect();
+            final Bitmap bitmap = BitmapFactory.decodeResourceStream(res, value, is, padding, options);
+            if (bitmap == null) {
+                return null;
+            }
+            record(id, value.density, res.getResourceEntryName(id), bitmap);
+            final Drawable drawable;
+            final byte[] chunk = bitmap.getNinePatchChunk();
+            if (chunk != null && NinePatch.isNinePatchChunk(chunk)) {
+                drawable = new NinePatchDrawable(res, bitmap, chunk, padding, value.string.toString());
+            } else {
+                drawable = new BitmapDrawable(res, bitmap);
+            }
+            synchronized (sDecoded) {
+                sDecoded.put(file, drawable.getConstantState());
+            }
+            return drawable;
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                Log.w(TAG, "closing " + value.string, e);
+            }
+        }
+    }
+
+    /**
+     * Forgets the decoded files, e.g. after the format changed.
+     */
+    static void clear() {
+        synchronized (sDecoded) {
+            sDecoded.clear();
+        }
+    }
+
+    /**
+     * @return The format of {@link #setBitmapConfig(Bitmap.Config)}, or
+     *         {@code Bitmap.Config.HARDWARE}, looked up by name, with
+     *         {@link #isHardwareBitmaps()}.
+     */
+    private static Bitmap.Config getDecodeConfig() {
+        if (isHardwareBitmaps()) {
+            try {
+                return Bitmap.Config.valueOf("HARDWARE");
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "no hardware bitmaps on SDK " + Build.VERSION.SDK_INT, e);
+            }
+        }
+        return getBitmapConfig();
+    }
+
+    @SuppressLint("NewApi")
+    private static void record(int id, int density, String name, Bitmap bitmap) {
+        final int bytes;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bytes = bitmap.getAllocationByteCount();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            bytes = bitmap.getByteCount();
+        } else {
+            bytes = bitmap.getRowBytes() * bitmap.getHeight();
+        }
+        synchronized (sBytes) {
+            sBytes.put(((long) id << 32) | (density & 0xffffffffL), new Asset(name, density, bytes));
+        }
+        Log.d(TAG, name + "@" + density + ": " + bitmap.getWidth() + "x" + bitmap.getHeight() + " "
+              + bitmap.getConfig() + ", " + bytes + " bytes");
+    }
+}
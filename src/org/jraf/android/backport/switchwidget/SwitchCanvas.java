@@ -0,0 +1,120 @@
+package org.jraf.android.backport.switchwidget;
+
+/**
+ * The small set of drawing calls used by {@link Switch} and {@link ThumbDrawable}.
+ * <p>
+ * The interface only speaks in library types, ints, floats and {@link IntRect}s, so that
+ * its implementations need no framework class. Images, drawables and text layouts are
+ * passed as opaque handles: on a device the calls go straight to a
+ * {@link android.graphics.Canvas}, see {@link AndroidSwitchCanvas};
+ * {@link SoftwareSwitchCanvas} rasterizes them into an in-memory ARGB buffer so frames
+ * come out the same on every device and can be compared pixel by pixel, on a plain JVM.
+ * <p>
+ * A color multiplies the image it is drawn with channel by channel, so
+ * {@code 0xffffffff} draws the image as it is, and a translucent white only fades it.
+ */
+public interface SwitchCanvas {
+
+    /**
+     * An integer rectangle, right and bottom exclusive. Mutable, so a caller can keep one
+     * around and draw without allocating.
+     */
+    public static final class IntRect {
+        public int left;
+        public int top;
+        public int right;
+        public int bottom;
+
+        public IntRect() {
+        }
+
+        public IntRect(int left, int top, int right, int bottom) {
+            set(left, top, right, bottom);
+        }
+
+        public void set(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        public int width() {
+            return right - left;
+        }
+
+        public int height() {
+            return bottom - top;
+        }
+
+        public boolean isEmpty() {
+            return left >= right || top >= bottom;
+        }
+
+        @Override
+        public String toString() {
+            return "IntRect(" + left + ", " + top + " - " + right + ", " + bottom + ")";
+        }
+    }
+
+    /**
+     * Saves the current translation and clip.
+     *
+     * @return The save count before this call.
+     */
+    int save();
+
+    /**
+     * Restores the translation and clip saved by the matching {@link #save()}.
+     */
+    void restore();
+
+    void translate(float dx, float dy);
+
+    /**
+     * Intersects the current clip with the given rectangle, in local coordinates.
+     *
+     * @return false if the resulting clip is empty.
+     */
+    boolean clipRect(int left, int top, int right, int bottom);
+
+    /**
+     * Draws the image through a mesh of {@code (meshWidth + 1) * (meshHeight + 1)}
+     * vertices, like {@link android.graphics.Canvas#drawBitmapMesh}.
+     *
+     * @param bitmap The handle of the image, e.g. a {@link android.graphics.Bitmap}.
+     * @param color Multiplies the image, {@code 0xffffffff} to draw it as it is.
+     */
+    void drawBitmapMesh(Object bitmap, int meshWidth, int meshHeight, float[] verts, int color);
+
+    /**
+     * Draws the {@code src} part of the image scaled into {@code dst}, like
+     * {@link android.graphics.Canvas#drawBitmap(android.graphics.Bitmap,
+     * android.graphics.Rect, android.graphics.Rect, android.graphics.Paint)}, filtered.
+     *
+     * @param color Multiplies the image.
+     */
+    void drawBitmap(Object bitmap, IntRect src, IntRect dst, int color);
+
+    /**
+     * Fills a rectangle with corners of the given radius with {@code color}, anti-aliased
+     * where the implementation can.
+     */
+    void drawRoundRect(float left, float top, float right, float bottom, float radius, int color);
+
+    /**
+     * Draws the drawable scaled into {@code bounds}.
+     *
+     * @param drawable The handle of the drawable, e.g. a
+     *            {@link android.graphics.drawable.Drawable}, drawn with its own state and
+     *            alpha.
+     */
+    void drawDrawable(Object drawable, IntRect bounds);
+
+    /**
+     * Draws the text layout at the current origin.
+     *
+     * @param layout The handle of the layout, e.g. a {@link android.text.Layout}.
+     */
+    void drawLayout(Object layout);
+}
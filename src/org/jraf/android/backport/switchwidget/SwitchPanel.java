@@ -0,0 +1,802 @@
+package org.jraf.android.backport.switchwidget;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.view.ViewParent;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityManager;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeProvider;
+import android.view.animation.Interpolator;
+
+/**
+ * A grid of on/off cells drawn like {@link Switch}es, all by this single view.
+ * <p>
+ * The cells have no view of their own: their states live in arrays, a tap is hit-tested
+ * to its cell, and {@link #onDraw(Canvas)} draws the visible cells with one shared set of
+ * track and thumb drawables. Only the cells sliding to a new state are animated and
+ * invalidated. A cell toggles on tap; dragging, the working state and the on/off labels
+ * of {@link Switch} are not supported.
+ * <p>
+ * A tap goes through {@link #performClick()}, which plays the click sound. From Jelly
+ * Bean on, each cell is also a virtual view for accessibility services. A cell can be
+ * explored by touch and clicked, and is announced with its
+ * {@link #setCellContentDescription(int, CharSequence) description} and checked state.
+ * <p>
+ * The cells take the {@code R.styleable.Switch} attributes of the panel, styled with
+ * {@code asb_switchStyle} by default.
+ */
+public class SwitchPanel extends View {
+    /**
+     * Notified when the user toggles a cell.
+     */
+    public interface OnCellCheckedChangeListener {
+        void onCellCheckedChanged(SwitchPanel panel, int cell, boolean checked);
+    }
+
+    // Same pace as the thumb of a Switch settling: 150 ms for the whole range
+    private static final int SLIDE_DURATION = 150;
+    // between slide steps before Jelly Bean, where there is no postOnAnimation()
+    private static final int FRAME_DELAY = 10;
+
+    private static final int[] CHECKED_STATE_SET = {
+        android.R.attr.state_enabled, android.R.attr.state_checked };
+    private static final int[] UNCHECKED_STATE_SET = { android.R.attr.state_enabled };
+
+    // what accessibility services announce a cell as
+    private static final String CELL_CLASS_NAME = "android.widget.Switch";
+
+    private final ThumbDrawable mThumbDrawable;
+    // colors of the thumb of a checked and an unchecked cell, when it is a grayscale mask
+    private final boolean mThumbTinted;
+    private final int mThumbCheckedColor;
+    private final int mThumbUncheckedColor;
+    private final Drawable mOnTrackDrawable;
+    private final Drawable mOffTrackDrawable;
+    private Drawable mDisabledLeft;
+    private Drawable mDisabledRight;
+    private final int mDisabledLeftId;
+    private final int mDisabledRightId;
+    private final int mDisabledAlpha;
+    private final int mThumbDrawableMargin;
+    private final int mThumbDrawableShadowOffset;
+    private final int mTouchSlop;
+    private final Interpolator mInterpolator = new Switch.QuinticBezierInterpolator();
+    private final AndroidSwitchCanvas mSwitchCanvas = new AndroidSwitchCanvas();
+    private final SwitchCanvas.IntRect mDrawBounds = new SwitchCanvas.IntRect();
+    private final Rect mTempRect = new Rect();
+
+    private int mColumns = 0;
+    private int mCellPadding;
+    private int mCellWidth;
+    private int mCellHeight;
+    private final int mSwitchWidth;
+    private final int mSwitchHeight;
+
+    // Per cell state
+    private int mCount = 0;
+    private boolean[] mChecked = new boolean[0];
+    private boolean[] mDisabled = new boolean[0];
+    // thumb position, from 0 (off) to 1 (on)
+    private float[] mPosition = new float[0];
+    private float[] mAnimFrom = new float[0];
+    private long[] mAnimStart = new long[0];
+    private int[] mAnimDuration = new int[0];
+
+    // The cells being animated, only these are stepped and invalidated
+    private int[] mAnimating = new int[0];
+    private int mAnimatingCount = 0;
+    private boolean mStepPosted = false;
+    private final Runnable mStepSlides = new Runnable() {
+        @Override
+        public void run() {
+            mStepPosted = false;
+            stepSlides(SystemClock.uptimeMillis());
+        }
+    };
+
+    private int mTouchCell = -1;
+    private float mTouchX;
+    private float mTouchY;
+    // the cell performClick() toggles, -1 for a click on the panel itself
+    private int mClickedCell = -1;
+    private OnCellCheckedChangeListener mListener;
+
+    private CharSequence[] mDescriptions = new CharSequence[0];
+    private final AccessibilityManager mAccessibilityManager;
+    private CellNodeProvider mNodeProvider;
+    private int mAccessibilityFocusedCell = -1;
+    private int mHoveredCell = -1;
+    private final int[] mLocation = new int[2];
+
+    public SwitchPanel(Context context) {
+        this(context, null);
+    }
+
+    public SwitchPanel(Context context, AttributeSet attrs) {
+        this(context, attrs, R.attr.asb_switchStyle);
+    }
+
+    public SwitchPanel(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+
+        mAccessibilityManager = (AccessibilityManager) context.getSystemService(Context.ACCESSIBILITY_SERVICE);
+        final Resources res = getResources();
+        final SwitchStyle style = SwitchStyle.obtain(context, attrs, defStyle);
+        mThumbDrawable = style.newThumb(res);
+        mOnTrackDrawable = style.newTrack(res, true);
+        mOffTrackDrawable = style.newTrack(res, false);
+        mThumbTinted = style.thumbTint != null;
+        if (mThumbTinted) {
+            mThumbCheckedColor = style.thumbTint.getColorForState(CHECKED_STATE_SET,
+                                                                  style.thumbTint.getDefaultColor());
+            mThumbUncheckedColor = style.thumbTint.getColorForState(UNCHECKED_STATE_SET,
+                                                                    style.thumbTint.getDefaultColor());
+        } else {
+            mThumbCheckedColor = 0;
+            mThumbUncheckedColor = 0;
+        }
+        if (style.trackTint != null) {
+            // the cells only differ by their checked state, which the tracks do not follow
+            mOnTrackDrawable.setColorFilter(SwitchTint.getFilter(
+                    style.trackTint.getColorForState(CHECKED_STATE_SET, style.trackTint.getDefaultColor())));
+            mOffTrackDrawable.setColorFilter(SwitchTint.getFilter(
+                    style.trackTint.getColorForState(UNCHECKED_STATE_SET, style.trackTint.getDefaultColor())));
+        }
+        mDisabledLeftId = style.disabledLeftId;
+        mDisabledRightId = style.disabledRightId;
+        mDisabledAlpha = style.disabledAlpha;
+        mThumbDrawableMargin = style.thumbMargin;
+        mThumbDrawableShadowOffset = style.thumbShadowOffset;
+        mTouchSlop = style.touchSlop;
+        mCellPadding = style.switchPadding / 2;
+
+        mSwitchWidth = mOnTrackDrawable.getIntrinsicWidth();
+        mSwitchHeight = mOnTrackDrawable.getIntrinsicHeight();
+        updateCellSize();
+    }
+
+    private void updateCellSize() {
+        final int heightWithShadow = Math.max(mSwitchHeight,
+                                              mThumbDrawable.getIntrinsicHeight() + 3 * mThumbDrawableShadowOffset);
+        mCellWidth = mSwitchWidth + 2 * mCellPadding;
+        mCellHeight = heightWithShadow + 2 * mCellPadding;
+    }
+
+    /**
+     * Sets the number of cells. Existing cells keep their state, new ones are off and
+     * enabled.
+     */
+    public void setCellCount(int count) {
+        if (count == mCount) {
+            return;
+        }
+        mChecked = copyOf(mChecked, count);
+        mDisabled = copyOf(mDisabled, count);
+        mPosition = copyOf(mPosition, count);
+        mAnimFrom = copyOf(mAnimFrom, count);
+        mAnimStart = copyOf(mAnimStart, count);
+        mAnimDuration = copyOf(mAnimDuration, count);
+        mAnimating = copyOf(mAnimating, count);
+        mDescriptions = copyOf(mDescriptions, count);
+        // drop the animations of removed cells
+        int kept = 0;
+        for (int i = 0; i < mAnimatingCount; i++) {
+            if (mAnimating[i] < count) {
+                mAnimating[kept++] = mAnimating[i];
+            }
+        }
+        mAnimatingCount = kept;
+        if (mTouchCell >= count) {
+            mTouchCell = -1;
+        }
+        if (mAccessibilityFocusedCell >= count) {
+            mAccessibilityFocusedCell = -1;
+        }
+        if (mHoveredCell >= count) {
+            mHoveredCell = -1;
+        }
+        mCount = count;
+        requestLayout();
+        invalidate();
+    }
+
+    public int getCellCount() {
+        return mCount;
+    }
+
+    /**
+     * @param columns The number of cells per row, or 0 to fit as many as the width allows.
+     */
+    public void setColumnCount(int columns) {
+        if (columns != mColumns) {
+            mColumns = columns;
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    public int getColumnCount() {
+        return mColumns;
+    }
+
+    /**
+     * Sets the space around each cell.
+     */
+    public void setCellPadding(int padding) {
+        if (padding != mCellPadding) {
+            mCellPadding = padding;
+            updateCellSize();
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    public boolean isChecked(int cell) {
+        return mChecked[cell];
+    }
+
+    /**
+     * Changes the state of a cell, sliding its thumb if the panel is shown.
+     */
+    public void setChecked(int cell, boolean checked) {
+        setChecked(cell, checked, getWindowVisibility() == VISIBLE && isShown());
+    }
+
+    /**
+     * Changes the state of a cell.
+     *
+     * @param animate false to move the thumb at once.
+     */
+    public void setChecked(int cell, boolean checked, boolean animate) {
+        if (mChecked[cell] == checked) {
+            return;
+        }
+        mChecked[cell] = checked;
+        if (animate && SwitchQuality.getTier() != SwitchQuality.Tier.MINIMAL) {
+            startSlide(cell);
+        } else {
+            stopSlide(cell);
+            mPosition[cell] = checked ? 1f : 0f;
+        }
+        invalidateCell(cell);
+    }
+
+    public boolean isCellEnabled(int cell) {
+        return !mDisabled[cell];
+    }
+
+    public void setCellEnabled(int cell, boolean enabled) {
+        if (mDisabled[cell] == !enabled) {
+            return;
+        }
+        mDisabled[cell] = !enabled;
+        if (!enabled) {
+            stopSlide(cell);
+            mPosition[cell] = mChecked[cell] ? 1f : 0f;
+        }
+        invalidateCell(cell);
+    }
+
+    /**
+     * Sets what accessibility services announce for a cell, e.g. the name of the setting
+     * it toggles, along with its checked state.
+     */
+    public void setCellContentDescription(int cell, CharSequence description) {
+        mDescriptions[cell] = description;
+    }
+
+    public CharSequence getCellContentDescription(int cell) {
+        return mDescriptions[cell];
+    }
+
+    public void setOnCellCheckedChangeListener(OnCellCheckedChangeListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return The cell under (x, y) in the coordinates of this view, or -1.
+     */
+    public int getCellAt(float x, float y) {
+        final int columns = getActualColumnCount();
+        final int left = (int) x - getPaddingLeft();
+        final int top = (int) y - getPaddingTop();
+        if (left < 0 || top < 0) {
+            return -1;
+        }
+        if (mCellWidth <= 0 || mCellHeight <= 0) {
+            return -1;
+        }
+        final int column = left / mCellWidth;
+        if (column >= columns) {
+            return -1;
+        }
+        final int cell = (top / mCellHeight) * columns + column;
+        return cell < mCount ? cell : -1;
+    }
+
+    private int getActualColumnCount() {
+        if (mColumns > 0) {
+            return mColumns;
+        }
+        if (mCellWidth <= 0) {
+            return 1;
+        }
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        return Math.max(1, width / mCellWidth);
+    }
+
+    private void getCellBounds(int cell, Rect out) {
+        final int columns = getActualColumnCount();
+        final int left = getPaddingLeft() + (cell % columns) * mCellWidth;
+        final int top = getPaddingTop() + (cell / columns) * mCellHeight;
+        out.set(left, top, left + mCellWidth, top + mCellHeight);
+    }
+
+    private void invalidateCell(int cell) {
+        getCellBounds(cell, mTempRect);
+        invalidate(mTempRect.left, mTempRect.top, mTempRect.right, mTempRect.bottom);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int paddingH = getPaddingLeft() + getPaddingRight();
+        int columns = mColumns;
+        if (columns <= 0 && mCellWidth <= 0) {
+            columns = 1;
+        } else if (columns <= 0) {
+            final int available = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED
+                    ? Integer.MAX_VALUE : MeasureSpec.getSize(widthMeasureSpec) - paddingH;
+            columns = Math.max(1, Math.min(mCount, available / mCellWidth));
+        }
+        final int rows = mCount == 0 ? 0 : (mCount + columns - 1) / columns;
+        final int width = resolveSize(columns * mCellWidth + paddingH, widthMeasureSpec);
+        final int height = resolveSize(rows * mCellHeight + getPaddingTop() + getPaddingBottom(),
+                                       heightMeasureSpec);
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent ev) {
+        if (!isEnabled()) {
+            return false;
+        }
+        switch (ev.getAction()) {
+            case MotionEvent.ACTION_DOWN: {
+                final int cell = getCellAt(ev.getX(), ev.getY());
+                if (cell < 0 || mDisabled[cell]) {
+                    return false;
+                }
+                mTouchCell = cell;
+                mTouchX = ev.getX();
+                mTouchY = ev.getY();
+                return true;
+            }
+
+            case MotionEvent.ACTION_MOVE:
+                if (mTouchCell >= 0 && (Math.abs(ev.getX() - mTouchX) > mTouchSlop
+                                        || Math.abs(ev.getY() - mTouchY) > mTouchSlop)) {
+                    // a scroll, not a tap
+                    mTouchCell = -1;
+                }
+                return true;
+
+            case MotionEvent.ACTION_UP: {
+                final int cell = mTouchCell;
+                mTouchCell = -1;
+                if (cell >= 0 && cell == getCellAt(ev.getX(), ev.getY())) {
+                    mClickedCell = cell;
+                    performClick();
+                }
+                return true;
+            }
+
+            case MotionEvent.ACTION_CANCEL:
+                mTouchCell = -1;
+                return true;
+        }
+        return true;
+    }
+
+    /**
+     * Toggles the cell tapped or clicked by an accessibility service, with the click sound.
+     * A click on the panel itself only notifies its {@link View.OnClickListener}.
+     */
+    @Override
+    public boolean performClick() {
+        final int cell = mClickedCell;
+        mClickedCell = -1;
+        if (cell < 0 || cell >= mCount || mDisabled[cell]) {
+            return super.performClick();
+        }
+        final boolean checked = !mChecked[cell];
+        setChecked(cell, checked, true);
+        if (mListener != null) {
+            mListener.onCellCheckedChanged(this, cell, checked);
+        }
+        if (!super.performClick()) {
+            // the framework only plays it for an OnClickListener
+            playSoundEffect(SoundEffectConstants.CLICK);
+        }
+        sendCellEvent(cell, AccessibilityEvent.TYPE_VIEW_CLICKED);
+        return true;
+    }
+
+    @SuppressLint("NewApi")
+    @Override
+    public boolean dispatchHoverEvent(MotionEvent event) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && mAccessibilityManager != null
+            && mAccessibilityManager.isTouchExplorationEnabled()) {
+            switch (event.getAction()) {
+                case MotionEvent.ACTION_HOVER_ENTER:
+                case MotionEvent.ACTION_HOVER_MOVE:
+                    setHoveredCell(getCellAt(event.getX(), event.getY()));
+                    break;
+                case MotionEvent.ACTION_HOVER_EXIT:
+                    setHoveredCell(-1);
+                    break;
+            }
+            if (mHoveredCell >= 0) {
+                return true;
+            }
+        }
+        return super.dispatchHoverEvent(event);
+    }
+
+    private void setHoveredCell(int cell) {
+        if (cell == mHoveredCell) {
+            return;
+        }
+        final int previous = mHoveredCell;
+        mHoveredCell = cell;
+        if (cell >= 0) {
+            sendCellEvent(cell, AccessibilityEvent.TYPE_VIEW_HOVER_ENTER);
+        }
+        if (previous >= 0) {
+            sendCellEvent(previous, AccessibilityEvent.TYPE_VIEW_HOVER_EXIT);
+        }
+    }
+
+    /**
+     * Sends an accessibility event from the virtual view of {@code cell}.
+     */
+    @SuppressLint("NewApi")
+    private void sendCellEvent(int cell, int eventType) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN || mAccessibilityManager == null
+            || !mAccessibilityManager.isEnabled()) {
+            return;
+        }
+        final ViewParent parent = getParent();
+        if (parent == null) {
+            return;
+        }
+        final AccessibilityEvent event = AccessibilityEvent.obtain(eventType);
+        event.setPackageName(getContext().getPackageName());
+        event.setClassName(CELL_CLASS_NAME);
+        event.setSource(this, cell);
+        event.setChecked(mChecked[cell]);
+        event.setEnabled(isEnabled() && !mDisabled[cell]);
+        event.setContentDescription(mDescriptions[cell]);
+        parent.requestSendAccessibilityEvent(this, event);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public AccessibilityNodeProvider getAccessibilityNodeProvider() {
+        if (mNodeProvider == null) {
+            mNodeProvider = new CellNodeProvider();
+        }
+        return mNodeProvider;
+    }
+
+    /**
+     * The panel, as {@link View#NO_ID}, with one virtual child per cell, the id of a cell
+     * being its index.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private final class CellNodeProvider extends AccessibilityNodeProvider {
+        private final Rect mBounds = new Rect();
+
+        @Override
+        public AccessibilityNodeInfo createAccessibilityNodeInfo(int virtualViewId) {
+            if (virtualViewId == View.NO_ID) {
+                final AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain(SwitchPanel.this);
+                onInitializeAccessibilityNodeInfo(info);
+                for (int cell = 0; cell < mCount; cell++) {
+                    info.addChild(SwitchPanel.this, cell);
+                }
+                return info;
+            }
+            if (virtualViewId < 0 || virtualViewId >= mCount) {
+                return null;
+            }
+            final int cell = virtualViewId;
+            final AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain();
+            info.setPackageName(getContext().getPackageName());
+            info.setClassName(CELL_CLASS_NAME);
+            info.setParent(SwitchPanel.this);
+            info.setSource(SwitchPanel.this, cell);
+            info.setContentDescription(mDescriptions[cell]);
+            info.setCheckable(true);
+            info.setChecked(mChecked[cell]);
+            final boolean enabled = isEnabled() && !mDisabled[cell];
+            info.setEnabled(enabled);
+            info.setClickable(enabled);
+            if (enabled) {
+                info.addAction(AccessibilityNodeInfo.ACTION_CLICK);
+            }
+            if (cell == mAccessibilityFocusedCell) {
+                info.setAccessibilityFocused(true);
+                info.addAction(AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS);
+            } else {
+                info.addAction(AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS);
+            }
+            getCellBounds(cell, mBounds);
+            info.setBoundsInParent(mBounds);
+            info.setVisibleToUser(isShown());
+            getLocationOnScreen(mLocation);
+            mBounds.offset(mLocation[0], mLocation[1]);
+            info.setBoundsInScreen(mBounds);
+            return info;
+        }
+
+        @Override
+        public boolean performAction(int virtualViewId, int action, Bundle arguments) {
+            if (virtualViewId == View.NO_ID) {
+                return performAccessibilityAction(action, arguments);
+            }
+            if (virtualViewId < 0 || virtualViewId >= mCount) {
+                return false;
+            }
+            final int cell = virtualViewId;
+            switch (action) {
+                case AccessibilityNodeInfo.ACTION_CLICK:
+                    if (!isEnabled() || mDisabled[cell]) {
+                        return false;
+                    }
+                    mClickedCell = cell;
+                    performClick();
+                    return true;
+
+                case AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS:
+                    if (cell == mAccessibilityFocusedCell) {
+                        return false;
+                    }
+                    mAccessibilityFocusedCell = cell;
+                    invalidate();
+                    sendCellEvent(cell, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED);
+                    return true;
+
+                case AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS:
+                    if (cell != mAccessibilityFocusedCell) {
+                        return false;
+                    }
+                    mAccessibilityFocusedCell = -1;
+                    invalidate();
+                    sendCellEvent(cell, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED);
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private void startSlide(int cell) {
+        final float target = mChecked[cell] ? 1f : 0f;
+        mAnimFrom[cell] = mPosition[cell];
+        mAnimStart[cell] = SystemClock.uptimeMillis();
+        mAnimDuration[cell] = Math.max(1, (int) (Math.abs(target - mPosition[cell]) * SLIDE_DURATION));
+        for (int i = 0; i < mAnimatingCount; i++) {
+            if (mAnimating[i] == cell) {
+                return;
+            }
+        }
+        mAnimating[mAnimatingCount++] = cell;
+        postStep();
+    }
+
+    private void stopSlide(int cell) {
+        for (int i = 0; i < mAnimatingCount; i++) {
+            if (mAnimating[i] == cell) {
+                mAnimating[i] = mAnimating[--mAnimatingCount];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the sliding thumbs to where they are at {@code now} and invalidates their
+     * cells, and steps again on the next frame while some are still sliding.
+     */
+    private void stepSlides(long now) {
+        int i = 0;
+        while (i < mAnimatingCount) {
+            final int cell = mAnimating[i];
+            final float target = mChecked[cell] ? 1f : 0f;
+            final float t = (float) (now - mAnimStart[cell]) / mAnimDuration[cell];
+            if (t >= 1f) {
+                mPosition[cell] = target;
+                mAnimating[i] = mAnimating[--mAnimatingCount];
+            } else {
+                final float from = mAnimFrom[cell];
+                mPosition[cell] = from + (target - from) * mInterpolator.getInterpolation(Math.max(0f, t));
+                i++;
+            }
+            invalidateCell(cell);
+        }
+        if (mAnimatingCount > 0) {
+            postStep();
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private void postStep() {
+        if (mStepPosted) {
+            return;
+        }
+        mStepPosted = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postOnAnimation(mStepSlides);
+        } else {
+            postDelayed(mStepSlides, FRAME_DELAY);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mAnimatingCount > 0) {
+            postStep();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(mStepSlides);
+        mStepPosted = false;
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mCount == 0 || mCellHeight <= 0) {
+            return;
+        }
+
+        // Only the rows within the clip, the panel may be much taller than the screen
+        if (!canvas.getClipBounds(mTempRect)) {
+            return;
+        }
+        final int columns = getActualColumnCount();
+        final int firstRow = Math.max(0, (mTempRect.top - getPaddingTop()) / mCellHeight);
+        final int lastRow = (mTempRect.bottom - getPaddingTop() - 1) / mCellHeight;
+        final int first = firstRow * columns;
+        final int last = Math.min(mCount - 1, lastRow * columns + columns - 1);
+
+        mSwitchCanvas.setCanvas(canvas);
+        for (int cell = first; cell <= last; cell++) {
+            final int left = getPaddingLeft() + (cell % columns) * mCellWidth + mCellPadding;
+            final int top = getPaddingTop() + (cell / columns) * mCellHeight + mCellPadding;
+            drawCell(mSwitchCanvas, cell, left, top);
+        }
+        mSwitchCanvas.setCanvas(null);
+    }
+
+    /**
+     * Draws a cell the way {@link Switch#drawSwitch(SwitchCanvas)} draws a switch, with its
+     * track at (left, top).
+     */
+    private void drawCell(SwitchCanvas canvas, int cell, int left, int top) {
+        final int right = left + mSwitchWidth;
+        final int bottom = top + mSwitchHeight;
+
+        if (mDisabled[cell]) {
+            // without disabled images, e.g. procedural, the cell is drawn faded
+            final Drawable drawable = getDisabledDrawable(mChecked[cell]);
+            if (drawable != null) {
+                mDrawBounds.set(left, top, right, bottom);
+                canvas.drawDrawable(drawable, mDrawBounds);
+                return;
+            }
+        }
+
+        canvas.save();
+        mOnTrackDrawable.getPadding(mTempRect);
+        final int innerLeft = left + mTempRect.left + mThumbDrawableMargin;
+        final int innerRight = right - mTempRect.right - mThumbDrawableMargin;
+        mThumbDrawable.getPadding(mTempRect);
+        final int thumbWidth = mThumbDrawable.getIntrinsicWidth() + mTempRect.left + mTempRect.right;
+        final int thumbDistance = Math.max(1, innerRight - innerLeft - thumbWidth);
+        final int thumbPos = (int) (mPosition[cell] * thumbDistance + 0.5f);
+        final int alpha = 255 * thumbPos / thumbDistance;
+
+        final int[] state = mChecked[cell] ? CHECKED_STATE_SET : UNCHECKED_STATE_SET;
+        mOnTrackDrawable.setState(state);
+        mOffTrackDrawable.setState(state);
+        mDrawBounds.set(left, top, right, bottom);
+        final int fade = mDisabled[cell] ? mDisabledAlpha : 255;
+        final SwitchQuality.Tier tier = SwitchQuality.getTier();
+        if (tier != SwitchQuality.Tier.FULL) {
+            // no crossfade, only the track the thumb is closest to
+            final Drawable track = alpha > 127 ? mOnTrackDrawable : mOffTrackDrawable;
+            track.setAlpha(fade);
+            canvas.drawDrawable(track, mDrawBounds);
+        } else if (alpha > 127) {
+            mOnTrackDrawable.setAlpha(alpha * fade / 255);
+            mOffTrackDrawable.setAlpha((255 - alpha) * fade / 255);
+            canvas.drawDrawable(mOffTrackDrawable, mDrawBounds);
+            canvas.drawDrawable(mOnTrackDrawable, mDrawBounds);
+        } else {
+            mOnTrackDrawable.setAlpha(alpha * fade / 255);
+            mOffTrackDrawable.setAlpha((255 - alpha) * fade / 255);
+            canvas.drawDrawable(mOnTrackDrawable, mDrawBounds);
+            canvas.drawDrawable(mOffTrackDrawable, mDrawBounds);
+        }
+
+        canvas.clipRect(innerLeft, top, innerRight, top + mCellHeight - 2 * mCellPadding);
+        canvas.translate(innerLeft - mTempRect.left + thumbPos, top + mThumbDrawableShadowOffset);
+        mThumbDrawable.setTier(tier);
+        if (mThumbTinted) {
+            mThumbDrawable.setTint(mChecked[cell] ? mThumbCheckedColor : mThumbUncheckedColor);
+        }
+        mThumbDrawable.setPosition(10000 * thumbPos / thumbDistance);
+        mThumbDrawable.setAlpha(fade);
+        mThumbDrawable.draw(canvas);
+        canvas.restore();
+    }
+
+    private Drawable getDisabledDrawable(boolean checked) {
+        if (checked) {
+            if (mDisabledRight == null) {
+                mDisabledRight = SwitchStyle.loadDrawable(getResources(), mDisabledRightId);
+            }
+            return mDisabledRight;
+        }
+        if (mDisabledLeft == null) {
+            mDisabledLeft = SwitchStyle.loadDrawable(getResources(), mDisabledLeftId);
+        }
+        return mDisabledLeft;
+    }
+
+    private static CharSequence[] copyOf(CharSequence[] array, int length) {
+        final CharSequence[] copy = new CharSequence[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static boolean[] copyOf(boolean[] array, int length) {
+        final boolean[] copy = new boolean[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static float[] copyOf(float[] array, int length) {
+        final float[] copy = new float[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+        final long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        final int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+}
@@ -31,8 +31,9 @@ import android.content.res.TypedArray;
 import android.preference.Preference;
 import android.util.AttributeSet;
 import android.view.View;
-import android.widget.Checkable;
+import android.view.ViewGroup;
 import android.widget.CompoundButton;
+import android.widget.TextView;
 
 /**
  * A {@link Preference} that provides a two-state toggleable option.
@@ -44,6 +45,7 @@ import android.widget.CompoundButton;
  * @attr ref android.R.styleable#SwitchPreference_asb_switchTextOff
  * @attr ref android.R.styleable#SwitchPreference_asb_switchTextOn
  * @attr ref android.R.styleable#SwitchPreference_asb_disableDependentsState
+ * @attr ref android.R.styleable#SwitchPreference_asb_writeBehind
  */
 public class SwitchPreference extends TwoStatePreference {
 	// Switch text for on and off states
@@ -81,6 +83,8 @@ public class SwitchPreference extends TwoStatePreference {
 
 		TypedArray a = context.obtainStyledAttributes(attrs,
 				R.styleable.SwitchPreference, R.attr.asb_switchPreferenceStyle, 0);
+		// Nothing is bound yet, no need to notify
+		setNotifySuppressed(true);
 		setSummaryOn(a.getString(R.styleable.SwitchPreference_asb_summaryOn));
 		setSummaryOff(a.getString(R.styleable.SwitchPreference_asb_summaryOff));
 		setSwitchTextOn(a.getString(R.styleable.SwitchPreference_asb_switchTextOn));
@@ -88,7 +92,10 @@ public class SwitchPreference extends TwoStatePreference {
 				.getString(R.styleable.SwitchPreference_asb_switchTextOff));
 		setDisableDependentsState(a.getBoolean(
 				R.styleable.SwitchPreference_asb_disableDependentsState, false));
+		setWriteBehind(a.getBoolean(
+				R.styleable.SwitchPreference_asb_writeBehind, false));
 		a.recycle();
+		setNotifySuppressed(false);
 	}
 
 	/**
@@ -113,27 +120,74 @@ public class SwitchPreference extends TwoStatePreference {
 		super(context);
 	}
 
+	@Override
+	protected View onCreateView(ViewGroup parent) {
+		if (getLayoutResource() == R.layout.preference
+				&& getWidgetLayoutResource() == R.layout.preference_widget_switch) {
+			// The default row, built without inflating it
+			return SwitchPreferenceRowBuilder.get(getContext()).build(getContext());
+		}
+		return super.onCreateView(parent);
+	}
+
 	@Override
 	protected void onBindView(View view) {
+		BindHolder holder = (BindHolder) view.getTag(R.id.asb_bindHolder);
+		if (holder == null) {
+			holder = new BindHolder(view);
+			view.setTag(R.id.asb_bindHolder, holder);
+		} else if (holder.preference == this
+				&& holder.generation == getBindGeneration()) {
+			// Same preference, nothing changed since it was bound to this view
+			return;
+		}
+
+		// Still looks up and sets the title, summary and icon itself: it also enables or
+		// disables the whole row through private code, which differs across releases
 		super.onBindView(view);
 
-		Switch checkableView = (Switch) view.findViewById(R.id.switchWidget);
-		if (checkableView != null /* && checkableView instanceof Checkable */) {
-			((Checkable) checkableView).setChecked(mChecked);
+		final Switch switchView = holder.switchView;
+		if (switchView != null) {
+			if (holder.preference == this) {
+				// Rebound after a change, e.g. the user's own toggle: let it animate
+				switchView.rebindChecked(mChecked);
+			} else {
+				// No animation on bind, the row may be a recycled one scrolling in
+				switchView.bindChecked(mChecked);
+			}
 
 			// XXX Was on the Android source, but had to comment it out. --
 			// Intrications
 			// sendAccessibilityEvent(checkableView);
 
-			// if (checkableView instanceof Switch) {
-				final Switch switchView =/* (Switch) */ checkableView;
-				switchView.setTextOn(mSwitchOn);
-				switchView.setTextOff(mSwitchOff);
+			// Only touch what differs, each text change costs a layout pass
+			switchView.setTextOn(mSwitchOn);
+			switchView.setTextOff(mSwitchOff);
+			if (switchView.getOnCheckedChangeListener() != mListener) {
 				switchView.setOnCheckedChangeListener(mListener);
-			// }
+			}
 		}
 
-		syncSummaryView(view);
+		syncSummaryView(holder.summaryView);
+
+		holder.preference = this;
+		holder.generation = getBindGeneration();
+	}
+
+	/**
+	 * Child views of a bound row, looked up once per view and kept as a tag, along with
+	 * what was last bound to it.
+	 */
+	private static class BindHolder {
+		final Switch switchView;
+		final TextView summaryView;
+		SwitchPreference preference;
+		int generation;
+
+		BindHolder(View view) {
+			switchView = (Switch) view.findViewById(R.id.switchWidget);
+			summaryView = (TextView) view.findViewById(android.R.id.summary);
+		}
 	}
 
 	/**
@@ -145,7 +199,7 @@ public class SwitchPreference extends TwoStatePreference {
 	 */
 	public void setSwitchTextOn(CharSequence onText) {
 		mSwitchOn = onText;
-		notifyChanged();
+		notifyChangedCoalesced();
 	}
 
 	/**
@@ -157,7 +211,7 @@ public class SwitchPreference extends TwoStatePreference {
 	 */
 	public void setSwitchTextOff(CharSequence offText) {
 		mSwitchOff = offText;
-		notifyChanged();
+		notifyChangedCoalesced();
 	}
 
 	/**
@@ -0,0 +1,202 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Resources;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.RelativeLayout;
+import android.widget.TextView;
+
+/**
+ * Builds the default {@link SwitchPreference} row, {@code res/layout/preference.xml} (and
+ * its v11 and v17 variants) holding {@code res/layout/preference_widget_switch.xml}, with
+ * constructors instead of inflating it.
+ * <p>
+ * The theme attributes and dimensions the layouts refer to are resolved once per theme.
+ * The views carry the same ids as the inflated ones, so the rows bind the same way.
+ * Must be used from the UI thread.
+ */
+final class SwitchPreferenceRowBuilder {
+    private static final Map<Resources.Theme, SwitchPreferenceRowBuilder> sBuilders =
+            new WeakHashMap<Resources.Theme, SwitchPreferenceRowBuilder>();
+
+    private final int mMinHeight;
+    private final int mScrollbarSize;
+    private final int mPaddingSide;
+    private final int mPaddingInner;
+    private final int mIconMinWidth;
+    private final int mWidgetWidth;
+    private final int mTitleAppearance;
+    private final int mSummaryAppearance;
+    private final ColorStateList mSummaryColor;
+    private final float mDensity;
+
+    /**
+     * @return The builder for the theme of {@code context}.
+     */
+    static SwitchPreferenceRowBuilder get(Context context) {
+        final Resources.Theme theme = context.getTheme();
+        SwitchPreferenceRowBuilder builder = sBuilders.get(theme);
+        if (builder == null) {
+            builder = new SwitchPreferenceRowBuilder(context);
+            sBuilders.put(theme, builder);
+        }
+        return builder;
+    }
+
+    private SwitchPreferenceRowBuilder(Context context) {
+        final Resources res = context.getResources();
+        final Resources.Theme theme = context.getTheme();
+        final TypedValue value = new TypedValue();
+        mDensity = res.getDisplayMetrics().density;
+
+        mMinHeight = theme.resolveAttribute(android.R.attr.listPreferredItemHeight, value, true)
+                ? (int) value.getDimension(res.getDisplayMetrics()) : 0;
+        mScrollbarSize = theme.resolveAttribute(android.R.attr.scrollbarSize, value, true)
+                ? (int) value.getDimension(res.getDisplayMetrics()) : 0;
+        mPaddingSide = res.getDimensionPixelSize(R.dimen.preference_item_padding_side);
+        mPaddingInner = res.getDimensionPixelSize(R.dimen.preference_item_padding_inner);
+        mIconMinWidth = res.getDimensionPixelSize(R.dimen.preference_icon_minWidth);
+        mWidgetWidth = res.getDimensionPixelSize(R.dimen.preference_widget_width);
+
+        final boolean holo = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+        mTitleAppearance = resolveResourceId(theme, value,
+                holo ? android.R.attr.textAppearanceMedium : android.R.attr.textAppearanceLarge);
+        mSummaryAppearance = resolveResourceId(theme, value, android.R.attr.textAppearanceSmall);
+        if (holo && theme.resolveAttribute(android.R.attr.textColorSecondary, value, true)) {
+            mSummaryColor = value.resourceId != 0
+                    ? res.getColorStateList(value.resourceId) : ColorStateList.valueOf(value.data);
+        } else {
+            mSummaryColor = null;
+        }
+    }
+
+    private static int resolveResourceId(Resources.Theme theme, TypedValue value, int attr) {
+        return theme.resolveAttribute(attr, value, true) ? value.resourceId : 0;
+    }
+
+    private int dip(int dip) {
+        return (int) (dip * mDensity + 0.5f);
+    }
+
+    /**
+     * @return A new row, as {@code Preference.onCreateView()} would return it.
+     */
+    @SuppressLint("NewApi")
+    View build(Context context) {
+        final boolean holo = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+        final boolean rtl = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1;
+
+        final LinearLayout row = new LinearLayout(context);
+        row.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                                                       ViewGroup.LayoutParams.WRAP_CONTENT));
+        row.setBaselineAligned(false);
+        row.setGravity(Gravity.CENTER_VERTICAL);
+        row.setMinimumHeight(mMinHeight);
+        if (rtl) {
+            row.setPaddingRelative(mPaddingSide, 0, mScrollbarSize, 0);
+        } else {
+            row.setPadding(holo ? mPaddingSide : 0, 0, mScrollbarSize, 0);
+        }
+
+        if (holo) {
+            final LinearLayout iconFrame = new LinearLayout(context);
+            iconFrame.setGravity(Gravity.CENTER);
+            iconFrame.setMinimumWidth(mIconMinWidth);
+            iconFrame.setOrientation(LinearLayout.HORIZONTAL);
+            final ImageView icon = new ImageView(context);
+            icon.setId(android.R.id.icon);
+            icon.setMinimumWidth(dip(48));
+            final LinearLayout.LayoutParams iconParams;
+            if (rtl) {
+                iconParams = new LinearLayout.LayoutParams(dip(48), dip(48));
+                iconParams.setMarginEnd(mPaddingInner);
+                icon.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
+            } else {
+                iconParams = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                                                           ViewGroup.LayoutParams.WRAP_CONTENT);
+                icon.setPadding(0, 0, mPaddingInner, 0);
+            }
+            iconParams.gravity = Gravity.CENTER;
+            iconFrame.addView(icon, iconParams);
+            row.addView(iconFrame, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                                                                 ViewGroup.LayoutParams.MATCH_PARENT));
+        }
+
+        final RelativeLayout texts = new RelativeLayout(context);
+        final LinearLayout.LayoutParams textsParams =
+                new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1);
+        if (holo) {
+            if (rtl) {
+                texts.setPaddingRelative(0, dip(6), mPaddingInner, dip(6));
+            } else {
+                texts.setPadding(0, dip(6), mPaddingInner, dip(6));
+            }
+        } else {
+            textsParams.setMargins(dip(15), dip(6), dip(6), dip(6));
+        }
+        row.addView(texts, textsParams);
+
+        final TextView title = new TextView(context);
+        title.setId(android.R.id.title);
+        title.setSingleLine(true);
+        title.setEllipsize(TextUtils.TruncateAt.MARQUEE);
+        title.setHorizontalFadingEdgeEnabled(true);
+        if (mTitleAppearance != 0) {
+            title.setTextAppearance(context, mTitleAppearance);
+        }
+        texts.addView(title, new RelativeLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                                                             ViewGroup.LayoutParams.WRAP_CONTENT));
+
+        final TextView summary = new TextView(context);
+        summary.setId(android.R.id.summary);
+        summary.setMaxLines(holo ? 10 : 4);
+        if (mSummaryAppearance != 0) {
+            summary.setTextAppearance(context, mSummaryAppearance);
+        }
+        if (mSummaryColor != null) {
+            summary.setTextColor(mSummaryColor);
+        }
+        final RelativeLayout.LayoutParams summaryParams =
+                new RelativeLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                                                ViewGroup.LayoutParams.WRAP_CONTENT);
+        summaryParams.addRule(RelativeLayout.BELOW, android.R.id.title);
+        summaryParams.addRule(rtl ? RelativeLayout.ALIGN_START : RelativeLayout.ALIGN_LEFT, android.R.id.title);
+        texts.addView(summary, summaryParams);
+
+        final LinearLayout widgetFrame = new LinearLayout(context);
+        widgetFrame.setId(android.R.id.widget_frame);
+        widgetFrame.setGravity(holo ? Gravity.CENTER : Gravity.CENTER_VERTICAL);
+        if (holo) {
+            widgetFrame.setMinimumWidth(mWidgetWidth);
+        }
+        widgetFrame.setOrientation(LinearLayout.VERTICAL);
+        row.addView(widgetFrame, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                                                               ViewGroup.LayoutParams.MATCH_PARENT));
+
+        // preference_widget_switch.xml, its style comes from the SwitchStyle cache
+        final Switch switchView = new Switch(context);
+        switchView.setId(R.id.switchWidget);
+        switchView.setFocusable(false);
+        final int padding = dip(16);
+        switchView.setPadding(padding, padding, padding, padding);
+        final LinearLayout.LayoutParams switchParams =
+                new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                                              ViewGroup.LayoutParams.WRAP_CONTENT);
+        switchParams.gravity = Gravity.CENTER;
+        widgetFrame.addView(switchView, switchParams);
+
+        return row;
+    }
+}
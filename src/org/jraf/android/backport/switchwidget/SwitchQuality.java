@@ -0,0 +1,272 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+import android.view.Choreographer;
+
+/**
+ * Picks how much work the switches of the process put into a frame.
+ * <ul>
+ * <li>{@link Tier#FULL}: mesh squash, working spinner and crossfaded tracks.</li>
+ * <li>{@link Tier#REDUCED}: a squash mesh of a few columns, and only the track the
+ * thumb is closest to.</li>
+ * <li>{@link Tier#MINIMAL}: no squash and no spinner, the thumb jumps to its end state.</li>
+ * </ul>
+ * The tier is the lowest of what the system settings allow, {@link Tier#REDUCED} in
+ * battery saver and {@link Tier#MINIMAL} with animations turned off, and of what the
+ * device can afford, measured while any switch animates. From Jelly Bean on the measure is
+ * the interval between the frames the {@link Choreographer} runs, which with hardware
+ * acceleration also counts the render thread; before, it is the time a switch takes to
+ * draw.
+ * <p>
+ * The measure is taken again every few seconds of animation. A slow window lowers the
+ * tier at once; the tier goes back up one step at a time, after a few smooth windows,
+ * since a lower tier makes the frames cheaper than the one above would.
+ * <p>
+ * All of it is meant for the UI thread.
+ */
+public final class SwitchQuality {
+    private static final String TAG = "SwitchQuality";
+
+    public enum Tier {
+        FULL,
+        REDUCED,
+        MINIMAL,
+    }
+
+    private static final boolean FRAME_TIMING = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+
+    // Animated frames measured before deciding, and the median frame interval, or the
+    // median cost of one switch frame, above which the tier goes down
+    private static final int SAMPLE_FRAMES = 24;
+    private static final long REDUCED_NANOS = FRAME_TIMING
+            ? TimeUnit.MILLISECONDS.toNanos(25) : TimeUnit.MICROSECONDS.toNanos(2000);
+    private static final long MINIMAL_NANOS = FRAME_TIMING
+            ? TimeUnit.MILLISECONDS.toNanos(50) : TimeUnit.MICROSECONDS.toNanos(6000);
+
+    // Time between two measures, smooth windows in a row before the tier goes up a step,
+    // and how long Tier.MINIMAL, which does not animate and so cannot measure, is kept
+    private static final long REMEASURE_INTERVAL = 5000;
+    private static final int RECOVER_WINDOWS = 3;
+    private static final long MINIMAL_RETRY_INTERVAL = 30000;
+
+    // The settings are read again at most this often
+    private static final long REFRESH_INTERVAL = 1000;
+
+    private static Tier sForcedTier;
+    private static Tier sMeasuredTier = Tier.FULL;
+    private static Tier sSystemTier = Tier.FULL;
+    private static Tier sTier = Tier.FULL;
+
+    private static final long[] sSamples = new long[SAMPLE_FRAMES];
+    private static int sSampleCount;
+    private static long sMedianNanos;
+    private static long sNextMeasure;
+    private static int sSmoothWindows;
+    private static FrameTimer sFrameTimer;
+
+    private static long sLastRefresh;
+    private static boolean sRefreshed;
+
+    private SwitchQuality() {
+    }
+
+    /**
+     * @return The tier the switches draw with right now.
+     */
+    public static Tier getTier() {
+        return sTier;
+    }
+
+    /**
+     * Overrides the automatic choice, e.g. from a setting of the app.
+     *
+     * @param tier The tier to use, or null to go back to the automatic one.
+     */
+    public static void setTier(Tier tier) {
+        sForcedTier = tier;
+        update();
+    }
+
+    /**
+     * @return The median of the last measure, in microseconds: the interval between two
+     *         animated frames from Jelly Bean on, the cost of drawing a switch before; 0
+     *         until enough frames were measured.
+     */
+    public static long getMeasuredDrawCost() {
+        return TimeUnit.NANOSECONDS.toMicros(sMedianNanos);
+    }
+
+    /**
+     * Forgets the measured cost, e.g. after the app changed what its switches look like.
+     */
+    public static void resetMeasure() {
+        sSampleCount = 0;
+        sMedianNanos = 0;
+        sNextMeasure = 0;
+        sSmoothWindows = 0;
+        sMeasuredTier = Tier.FULL;
+        update();
+    }
+
+    static boolean isMeasuring() {
+        return SystemClock.uptimeMillis() >= sNextMeasure;
+    }
+
+    static boolean hasFrameTiming() {
+        return FRAME_TIMING;
+    }
+
+    /**
+     * Called by the switches when they draw an animated frame, with frame timing: keeps
+     * the frame intervals coming while they animate.
+     */
+    @SuppressLint("NewApi")
+    static void onAnimatedFrame() {
+        if (sFrameTimer == null) {
+            sFrameTimer = new FrameTimer();
+        }
+        sFrameTimer.onAnimatedFrame();
+    }
+
+    /**
+     * Called by the switches, without frame timing, with the time an animated frame took
+     * to draw.
+     */
+    static void addSample(long nanos) {
+        if (!isMeasuring()) {
+            return;
+        }
+        sSamples[sSampleCount++] = nanos;
+        if (sSampleCount < SAMPLE_FRAMES) {
+            return;
+        }
+        // the median ignores the frames paying for decoding and class loading
+        final long[] sorted = sSamples.clone();
+        Arrays.sort(sorted);
+        sMedianNanos = sorted[SAMPLE_FRAMES / 2];
+        sSampleCount = 0;
+        final Tier tier;
+        if (sMedianNanos > MINIMAL_NANOS) {
+            tier = Tier.MINIMAL;
+        } else if (sMedianNanos > REDUCED_NANOS) {
+            tier = Tier.REDUCED;
+        } else {
+            tier = Tier.FULL;
+        }
+        if (tier.ordinal() > sMeasuredTier.ordinal()) {
+            sMeasuredTier = tier;
+            sSmoothWindows = 0;
+        } else if (tier.ordinal() < sMeasuredTier.ordinal() && ++sSmoothWindows >= RECOVER_WINDOWS) {
+            sMeasuredTier = Tier.values()[sMeasuredTier.ordinal() - 1];
+            sSmoothWindows = 0;
+        } else if (tier == sMeasuredTier) {
+            sSmoothWindows = 0;
+        }
+        sNextMeasure = SystemClock.uptimeMillis()
+                + (sMeasuredTier == Tier.MINIMAL ? MINIMAL_RETRY_INTERVAL : REMEASURE_INTERVAL);
+        Log.d(TAG, "measured " + getMeasuredDrawCost() + " us per frame, tier: " + sMeasuredTier);
+        update();
+    }
+
+    /**
+     * Reads battery saver and the animator duration scale again, unless it was done
+     * less than a second ago. Called when a switch is attached and when its thumb
+     * starts moving.
+     */
+    @SuppressLint("NewApi")
+    static void refresh(Context context) {
+        final long now = SystemClock.uptimeMillis();
+        if (sRefreshed && now - sLastRefresh < REFRESH_INTERVAL) {
+            return;
+        }
+        sRefreshed = true;
+        sLastRefresh = now;
+
+        if (sMeasuredTier == Tier.MINIMAL && now >= sNextMeasure) {
+            // nothing animates in Tier.MINIMAL, try the tier above and let its measure tell
+            sMeasuredTier = Tier.REDUCED;
+            Log.d(TAG, "retrying tier: " + sMeasuredTier);
+        }
+
+        float scale = 1f;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            scale = Settings.Global.getFloat(context.getContentResolver(),
+                                             Settings.Global.ANIMATOR_DURATION_SCALE, 1f);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            scale = Settings.System.getFloat(context.getContentResolver(),
+                                             Settings.System.ANIMATOR_DURATION_SCALE, 1f);
+        }
+        boolean powerSave = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            final PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            powerSave = pm != null && pm.isPowerSaveMode();
+        }
+
+        if (scale == 0f) {
+            sSystemTier = Tier.MINIMAL;
+        } else if (powerSave) {
+            sSystemTier = Tier.REDUCED;
+        } else {
+            sSystemTier = Tier.FULL;
+        }
+        update();
+    }
+
+    private static void update() {
+        final Tier tier;
+        if (sForcedTier != null) {
+            tier = sForcedTier;
+        } else {
+            tier = sSystemTier.ordinal() > sMeasuredTier.ordinal() ? sSystemTier : sMeasuredTier;
+        }
+        if (tier != sTier) {
+            Log.d(TAG, "tier: " + sTier + " -> " + tier);
+            sTier = tier;
+        }
+    }
+
+    /**
+     * Samples the interval between the frames of the Choreographer, for as long as a
+     * switch draws an animated frame in each of them.
+     */
+    @SuppressLint("NewApi")
+    private static final class FrameTimer implements Choreographer.FrameCallback {
+        private boolean mPosted;
+        private boolean mAnimated;
+        private long mLastFrameNanos;
+
+        void onAnimatedFrame() {
+            mAnimated = true;
+            if (!mPosted) {
+                mPosted = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mPosted = false;
+            if (!mAnimated || !isMeasuring()) {
+                // the next interval would count the time nothing animated
+                mLastFrameNanos = 0;
+                return;
+            }
+            mAnimated = false;
+            if (mLastFrameNanos != 0) {
+                addSample(frameTimeNanos - mLastFrameNanos);
+            }
+            mLastFrameNanos = frameTimeNanos;
+            mPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
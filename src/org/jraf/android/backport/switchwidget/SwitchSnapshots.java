@@ -0,0 +1,124 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.text.Layout;
+
+/**
+ * Pictures of switches at rest, shared by all the switches looking the same, see
+ * {@code asb_snapshot}. A switch at rest draws its picture with a single bitmap blit
+ * instead of its tracks, label and thumb mesh, e.g. while a list of them flings.
+ * <p>
+ * A picture is told apart by everything a resting switch draws from: its style, size,
+ * drawable state, label and thumb side.
+ */
+final class SwitchSnapshots {
+
+    private static final int MAX_BYTES = 1024 * 1024;
+
+    // In access order, the least recently drawn first; android.util.LruCache needs API 12
+    private static final Map<Key, Bitmap> sSnapshots = new LinkedHashMap<Key, Bitmap>(16, 0.75f, true);
+    private static int sBytes;
+
+    private SwitchSnapshots() {
+    }
+
+    /**
+     * What a resting switch looks like. Each switch keeps one and updates it in place, so
+     * finding its picture allocates nothing until it changes.
+     */
+    static final class Key {
+        private SwitchStyle mStyle;
+        private int mWidth;
+        private int mHeight;
+        private int[] mState;
+        private Layout mText;
+        private int mTextColor;
+        private boolean mThumbRight;
+
+        /**
+         * @param text The label drawn, or null.
+         * @param textColor The color the label is drawn with for {@code state}: it may come
+         *            from the {@code android:textColor} of the view rather than the style.
+         */
+        void set(SwitchStyle style, int width, int height, int[] state, Layout text, int textColor,
+                 boolean thumbRight) {
+            if (mStyle == style && mWidth == width && mHeight == height && mText == text
+                    && mTextColor == textColor && mThumbRight == thumbRight && Arrays.equals(mState, state)) {
+                return;
+            }
+            mStyle = style;
+            mWidth = width;
+            mHeight = height;
+            mState = state.clone();
+            mText = text;
+            mTextColor = textColor;
+            mThumbRight = thumbRight;
+        }
+
+        private Key copy() {
+            final Key key = new Key();
+            key.mStyle = mStyle;
+            key.mWidth = mWidth;
+            key.mHeight = mHeight;
+            key.mState = mState;
+            key.mText = mText;
+            key.mTextColor = mTextColor;
+            key.mThumbRight = mThumbRight;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mStyle == other.mStyle && mWidth == other.mWidth && mHeight == other.mHeight
+                    && mText == other.mText && mTextColor == other.mTextColor
+                    && mThumbRight == other.mThumbRight
+                    && Arrays.equals(mState, other.mState);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(mStyle);
+            hash = hash * 31 + mWidth;
+            hash = hash * 31 + mHeight;
+            hash = hash * 31 + Arrays.hashCode(mState);
+            hash = hash * 31 + System.identityHashCode(mText);
+            hash = hash * 31 + mTextColor;
+            return hash * 31 + (mThumbRight ? 1 : 0);
+        }
+    }
+
+    static synchronized Bitmap get(Key key) {
+        return sSnapshots.get(key);
+    }
+
+    static synchronized void put(Key key, Bitmap snapshot) {
+        final Bitmap previous = sSnapshots.put(key.copy(), snapshot);
+        if (previous != null) {
+            sBytes -= sizeOf(previous);
+        }
+        sBytes += sizeOf(snapshot);
+        final Iterator<Bitmap> eldest = sSnapshots.values().iterator();
+        while (sBytes > MAX_BYTES && eldest.hasNext()) {
+            sBytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    static synchronized void clear() {
+        sSnapshots.clear();
+        sBytes = 0;
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,567 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.util.TypedValue;
+import android.view.ViewConfiguration;
+
+/**
+ * The attributes of a {@link Switch}, resolved once per theme, default style and set of
+ * XML attributes, and copied by every switch constructed with the same ones.
+ * <p>
+ * Drawables are kept as templates: each switch gets its own instance from their
+ * {@link Drawable.ConstantState}, sharing the decoded bitmaps. A style whose drawables
+ * cannot be copied that way is handed out once and not cached. The drawables only some
+ * switches ever show are kept as resource ids and go through {@link #loadDrawable}.
+ * <p>
+ * Styles are held per {@link Resources.Theme} and go away with it, as their values may
+ * refer to theme attributes. The decoded bitmaps and the label layouts do not depend on
+ * the theme: they are shared per {@link Resources}, so they can be prepared off the UI
+ * thread before any activity exists, see {@link SwitchWarmUp}. A theme modified with
+ * {@code applyStyle()} after switches were built keeps serving the older values until
+ * {@link #clear()} is called.
+ */
+final class SwitchStyle {
+    private static final String TAG = "SwitchStyle";
+
+    private static final Map<Resources.Theme, Map<String, SwitchStyle>> sCache =
+            new WeakHashMap<Resources.Theme, Map<String, SwitchStyle>>();
+
+    private static final Map<Resources, SparseArray<DrawableEntry>> sDrawables =
+            new WeakHashMap<Resources, SparseArray<DrawableEntry>>();
+
+    // The on/off labels of every switch are the same few strings
+    private static final int MAX_LAYOUTS = 16;
+    private static final Map<LayoutKey, LayoutEntry> sLayouts =
+            new LinkedHashMap<LayoutKey, LayoutEntry>(MAX_LAYOUTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<LayoutKey, LayoutEntry> eldest) {
+                    return size() > MAX_LAYOUTS;
+                }
+            };
+
+    // Procedural switches with no asb_thumbSize or asb_trackColor, see newThumb() and newTrack()
+    private static final int DEFAULT_THUMB_SIZE = 24;
+    private static final int DEFAULT_TRACK_COLOR = 0xff33b5e5;
+    private static final int OFF_TRACK_ALPHA = 0x66;
+    // ?android:attr/disabledAlpha of the holo themes, for the themes without it
+    private static final float DEFAULT_DISABLED_ALPHA = 0.5f;
+
+    // R.styleable.Switch sorted, to tell the attributes that matter in an AttributeSet
+    private static int[] sSwitchAttrs;
+
+    Drawable thumb;
+    Drawable onTrack;
+    Drawable offTrack;
+    // rarely drawn, only decoded on first use, see loadDrawable()
+    int thumbCircleId;
+    int disabledLeftId;
+    int disabledRightId;
+    // fading the tracks and the thumb of a disabled switch without disabled images
+    int disabledAlpha;
+    int thumbMargin;
+    int thumbShadowOffset;
+    int thumbTextPadding;
+    int switchMinWidth;
+    int switchPadding;
+    int trackColor;
+    // asb_procedural: thumb and tracks drawn with shapes, no bitmap is decoded
+    boolean procedural;
+    int thumbSize;
+    // set when the thumb and the tracks are grayscale masks, see SwitchTint
+    ColorStateList thumbTint;
+    ColorStateList trackTint;
+    boolean drawText;
+    // asb_snapshot: drawn at rest from a shared picture, see SwitchSnapshots
+    boolean snapshot;
+    boolean instantCommit;
+    CharSequence textOn;
+    CharSequence textOff;
+
+    // asb_switchTextAppearance, if set
+    boolean hasTextAppearance;
+    ColorStateList textColors;
+    int textSize;
+    int typefaceIndex;
+    int styleIndex;
+
+    int touchSlop;
+    int minFlingVelocity;
+
+    private boolean mShared;
+
+    private SwitchStyle() {
+    }
+
+    /**
+     * @return The style of a switch built with these arguments, resolved now or taken
+     *         from the cache.
+     */
+    static SwitchStyle obtain(Context context, AttributeSet attrs, int defStyle) {
+        final Resources.Theme theme = context.getTheme();
+        final String key = getKey(theme, attrs, defStyle, attrs == null ? 0 : attrs.getStyleAttribute());
+        SwitchStyle style = get(theme, key);
+        if (style == null) {
+            style = resolve(theme, attrs, defStyle, 0, ViewConfiguration.get(context), false);
+            if (style.mShared) {
+                put(theme, key, style);
+            }
+        }
+        return style;
+    }
+
+    /**
+     * Resolves the style of a switch declared with {@code style="@style/styleRes"} and no
+     * other switch attribute, or 0 for the default one, ahead of its first use: its
+     * bitmaps are decoded into the cache of {@code res}. The style itself is not cached,
+     * {@code theme} not being the one of any activity.
+     */
+    static SwitchStyle prepare(Resources res, Resources.Theme theme, int styleRes, ViewConfiguration config) {
+        return resolve(theme, null, R.attr.asb_switchStyle, styleRes, config, true);
+    }
+
+    /**
+     * @return true if this style is cached and handed to every switch built the same way,
+     *         so that it tells them apart from the others.
+     */
+    boolean isShared() {
+        return mShared;
+    }
+
+    /**
+     * Empties the cache, e.g. after the theme of a living context was changed.
+     */
+    static synchronized void clear() {
+        sCache.clear();
+        sDrawables.clear();
+        SwitchBitmaps.clear();
+        sLayouts.clear();
+        SwitchSnapshots.clear();
+    }
+
+    private static synchronized SwitchStyle get(Resources.Theme theme, String key) {
+        final Map<String, SwitchStyle> styles = sCache.get(theme);
+        return styles == null ? null : styles.get(key);
+    }
+
+    private static synchronized void put(Resources.Theme theme, String key, SwitchStyle style) {
+        Map<String, SwitchStyle> styles = sCache.get(theme);
+        if (styles == null) {
+            styles = new HashMap<String, SwitchStyle>();
+            sCache.put(theme, styles);
+        }
+        styles.put(key, style);
+    }
+
+    /**
+     * Fingerprints what can change the outcome of resolving {@code R.styleable.Switch}
+     * within one theme: the style the theme gives to {@code defStyle}, the {@code style}
+     * attribute and the raw values of the switch attributes. Layout and other view
+     * attributes are ignored. {@code ?attr/} values resolve differently in another theme,
+     * so the entries are also held per theme.
+     */
+    static String getKey(Resources.Theme theme, AttributeSet attrs, int defStyle, int styleRes) {
+        final StringBuilder key = new StringBuilder();
+        final TypedValue value = new TypedValue();
+        if (defStyle != 0 && theme.resolveAttribute(defStyle, value, true)) {
+            key.append(value.resourceId);
+        } else {
+            key.append('0');
+        }
+        key.append('/').append(styleRes);
+        if (attrs == null) {
+            return key.toString();
+        }
+        final int[] switchAttrs = getSwitchAttrs();
+        final int count = attrs.getAttributeCount();
+        for (int i = 0; i < count; i++) {
+            final int name = attrs.getAttributeNameResource(i);
+            if (Arrays.binarySearch(switchAttrs, name) >= 0) {
+                key.append(';').append(name).append('=').append(attrs.getAttributeValue(i));
+            }
+        }
+        return key.toString();
+    }
+
+    private static synchronized int[] getSwitchAttrs() {
+        if (sSwitchAttrs == null) {
+            final int[] attrs = R.styleable.Switch.clone();
+            Arrays.sort(attrs);
+            sSwitchAttrs = attrs;
+        }
+        return sSwitchAttrs;
+    }
+
+    /**
+     * @param styleRes A style applied over the default one the way a {@code style}
+     *            attribute would, or 0. Only used without {@code attrs}, which carry their
+     *            own.
+     * @param warmUp true when resolved ahead of time by {@link SwitchWarmUp}.
+     */
+    private static SwitchStyle resolve(Resources.Theme theme, AttributeSet attrs, int defStyle, int styleRes,
+                                       ViewConfiguration config, boolean warmUp) {
+        final SwitchStyle style = new SwitchStyle();
+        final TypedArray d = theme.obtainStyledAttributes(attrs, R.styleable.Switch, defStyle, 0);
+        final TypedArray s = styleRes != 0 ? theme.obtainStyledAttributes(styleRes, R.styleable.Switch) : null;
+
+        final Resources res = theme.getResources();
+        style.procedural = pick(d, s, R.styleable.Switch_asb_procedural)
+                .getBoolean(R.styleable.Switch_asb_procedural, false);
+        if (style.procedural) {
+            style.thumbSize = pick(d, s, R.styleable.Switch_asb_thumbSize)
+                    .getDimensionPixelSize(R.styleable.Switch_asb_thumbSize, 0);
+            if (style.thumbSize <= 0) {
+                style.thumbSize = (int) (DEFAULT_THUMB_SIZE * res.getDisplayMetrics().density + 0.5f);
+            }
+        } else {
+            style.thumb = getDrawable(res, pick(d, s, R.styleable.Switch_asb_thumb), R.styleable.Switch_asb_thumb,
+                                      warmUp);
+            style.onTrack = getDrawable(res, pick(d, s, R.styleable.Switch_asb_onTrack), R.styleable.Switch_asb_onTrack,
+                                        warmUp);
+            style.offTrack = getDrawable(res, pick(d, s, R.styleable.Switch_asb_offTrack),
+                                         R.styleable.Switch_asb_offTrack, warmUp);
+        }
+        style.thumbCircleId = pick(d, s, R.styleable.Switch_asb_thumbCircle)
+                .getResourceId(R.styleable.Switch_asb_thumbCircle, 0);
+        style.thumbMargin = pick(d, s, R.styleable.Switch_asb_thumbMargin)
+                .getDimensionPixelSize(R.styleable.Switch_asb_thumbMargin, 0);
+        style.thumbShadowOffset = pick(d, s, R.styleable.Switch_asb_thumbShadowOffset)
+                .getDimensionPixelSize(R.styleable.Switch_asb_thumbShadowOffset, 0);
+        style.disabledLeftId = pick(d, s, R.styleable.Switch_asb_disabledLeft)
+                .getResourceId(R.styleable.Switch_asb_disabledLeft, 0);
+        style.disabledRightId = pick(d, s, R.styleable.Switch_asb_disabledRight)
+                .getResourceId(R.styleable.Switch_asb_disabledRight, 0);
+        style.drawText = pick(d, s, R.styleable.Switch_asb_drawText).getBoolean(R.styleable.Switch_asb_drawText, false);
+        style.textOn = pick(d, s, R.styleable.Switch_asb_textOn).getText(R.styleable.Switch_asb_textOn);
+        style.textOff = pick(d, s, R.styleable.Switch_asb_textOff).getText(R.styleable.Switch_asb_textOff);
+        style.thumbTextPadding = pick(d, s, R.styleable.Switch_asb_thumbTextPadding)
+                .getDimensionPixelSize(R.styleable.Switch_asb_thumbTextPadding, 0);
+        style.switchMinWidth = pick(d, s, R.styleable.Switch_asb_switchMinWidth)
+                .getDimensionPixelSize(R.styleable.Switch_asb_switchMinWidth, 0);
+        style.switchPadding = pick(d, s, R.styleable.Switch_asb_switchPadding)
+                .getDimensionPixelSize(R.styleable.Switch_asb_switchPadding, 0);
+        style.trackColor = pick(d, s, R.styleable.Switch_asb_trackColor).getColor(R.styleable.Switch_asb_trackColor,
+                style.procedural ? DEFAULT_TRACK_COLOR : 0);
+        style.thumbTint = pick(d, s, R.styleable.Switch_asb_thumbTint).getColorStateList(R.styleable.Switch_asb_thumbTint);
+        style.trackTint = pick(d, s, R.styleable.Switch_asb_trackTint).getColorStateList(R.styleable.Switch_asb_trackTint);
+        style.snapshot = pick(d, s, R.styleable.Switch_asb_snapshot).getBoolean(R.styleable.Switch_asb_snapshot, false);
+        style.instantCommit = pick(d, s, R.styleable.Switch_asb_instantCommit)
+                .getBoolean(R.styleable.Switch_asb_instantCommit, false);
+
+        final int appearance = pick(d, s, R.styleable.Switch_asb_switchTextAppearance)
+                .getResourceId(R.styleable.Switch_asb_switchTextAppearance, 0);
+        d.recycle();
+        if (s != null) {
+            s.recycle();
+        }
+
+        if (appearance != 0) {
+            final TypedArray ap = theme.obtainStyledAttributes(appearance, R.styleable.Android);
+            style.hasTextAppearance = true;
+            style.textColors = ap.getColorStateList(R.styleable.Android_android_textColor);
+            style.textSize = ap.getDimensionPixelSize(R.styleable.Android_android_textSize, 0);
+            style.typefaceIndex = ap.getInt(R.styleable.Android_android_typeface, -1);
+            style.styleIndex = ap.getInt(R.styleable.Android_android_textStyle, -1);
+            ap.recycle();
+        }
+
+        final TypedValue value = new TypedValue();
+        final float disabledAlpha = theme.resolveAttribute(android.R.attr.disabledAlpha, value, true)
+                && value.type == TypedValue.TYPE_FLOAT ? value.getFloat() : DEFAULT_DISABLED_ALPHA;
+        style.disabledAlpha = (int) (255 * disabledAlpha + 0.5f);
+
+        style.touchSlop = config.getScaledTouchSlop();
+        style.minFlingVelocity = config.getScaledMinimumFlingVelocity();
+
+        style.mShared = canCopy(style.thumb) && canCopy(style.onTrack) && canCopy(style.offTrack);
+        return style;
+    }
+
+    /**
+     * @return {@code style} if it sets {@code index}, as it takes precedence over the
+     *         default style, {@code defaults} otherwise.
+     */
+    private static TypedArray pick(TypedArray defaults, TypedArray style, int index) {
+        return style != null && style.hasValue(index) ? style : defaults;
+    }
+
+    /**
+     * @return The drawable at {@code index}, decoded by {@link SwitchBitmaps} or taken from
+     *         the cache of {@code res} when it is a bitmap resource. Other drawables are
+     *         inflated through the theme, they may refer to its attributes.
+     */
+    private static Drawable getDrawable(Resources res, TypedArray a, int index, boolean warmUp) {
+        final int id = a.getResourceId(index, 0);
+        final Drawable drawable = id != 0 ? loadBitmap(res, id, warmUp) : null;
+        return drawable != null ? drawable : a.getDrawable(index);
+    }
+
+    private static boolean canCopy(Drawable drawable) {
+        return drawable == null || drawable.getConstantState() != null;
+    }
+
+    /**
+     * @return The thumb of one switch of this style.
+     */
+    ThumbDrawable newThumb(Resources res) {
+        if (procedural) {
+            return new ThumbDrawable(thumbSize, thumbShadowOffset, res, thumbCircleId, Switch.THUMB_SQUASH_RATIO);
+        }
+        return new ThumbDrawable(newDrawable(thumb, res), res, thumbCircleId, Switch.THUMB_SQUASH_RATIO);
+    }
+
+    /**
+     * @return The on or off track of one switch of this style, mutated: its color filter
+     *         and alpha, set per switch, do not reach the other instances of the drawable.
+     */
+    Drawable newTrack(Resources res, boolean on) {
+        if (!procedural) {
+            final Drawable track = newDrawable(on ? onTrack : offTrack, res);
+            return track != null ? track.mutate() : null;
+        }
+        // wide enough for the thumb fully squashed plus a diameter to travel, the thumb
+        // centered vertically with room for its shadow
+        final int thumbWidth = thumbSize + thumbSize * Switch.THUMB_SQUASH_RATIO / 10000;
+        final int width = Math.max(switchMinWidth, thumbWidth + thumbSize + 2 * thumbMargin);
+        final int height = thumbSize + 2 * thumbShadowOffset;
+        // the off track is the on one, fainter
+        final int color = on ? trackColor
+                : (trackColor & 0xffffff) | ((trackColor >>> 24) * OFF_TRACK_ALPHA / 255) << 24;
+        return new TrackDrawable(width, height, color);
+    }
+
+    /**
+     * @return An instance of the {@code template} drawable of this style for one switch.
+     */
+    Drawable newDrawable(Drawable template, Resources res) {
+        if (template == null || !mShared) {
+            return template;
+        }
+        return template.getConstantState().newDrawable(res);
+    }
+
+    /**
+     * Decodes the drawable {@code id} the first time it is asked for with {@code res}, and
+     * afterwards returns new instances sharing the decoded one.
+     *
+     * @return null if {@code id} is 0.
+     */
+    static Drawable loadDrawable(Resources res, int id) {
+        if (id == 0) {
+            return null;
+        }
+        Drawable drawable = loadBitmap(res, id, false);
+        if (drawable == null) {
+            drawable = getCached(res, id);
+        }
+        if (drawable == null) {
+            drawable = res.getDrawable(id);
+            putCached(res, id, drawable, 0);
+        }
+        return drawable;
+    }
+
+    /**
+     * Same as {@link #loadDrawable(Resources, int)} for bitmap and 9-patch resources only.
+     *
+     * @param warmUp true to count the decoding time as saved when a switch first uses it.
+     * @return null if {@code id} is not a bitmap.
+     */
+    private static Drawable loadBitmap(Resources res, int id, boolean warmUp) {
+        final Drawable cached = getCached(res, id);
+        if (cached != null) {
+            return cached;
+        }
+        final long start = System.nanoTime();
+        final Drawable drawable = SwitchBitmaps.decode(res, id);
+        if (drawable != null) {
+            putCached(res, id, drawable, warmUp ? System.nanoTime() - start : 0);
+        }
+        return drawable;
+    }
+
+    private static Drawable getCached(Resources res, int id) {
+        final DrawableEntry entry;
+        synchronized (SwitchStyle.class) {
+            final SparseArray<DrawableEntry> entries = sDrawables.get(res);
+            entry = entries == null ? null : entries.get(id);
+        }
+        if (entry == null) {
+            return null;
+        }
+        SwitchWarmUp.addSaved(entry.takeWarmUpNanos());
+        return entry.state.newDrawable(res);
+    }
+
+    private static void putCached(Resources res, int id, Drawable drawable, long warmUpNanos) {
+        final Drawable.ConstantState state = drawable.getConstantState();
+        if (state == null) {
+            return;
+        }
+        final DrawableEntry entry = new DrawableEntry(state);
+        entry.warmUpNanos = warmUpNanos;
+        synchronized (SwitchStyle.class) {
+            SparseArray<DrawableEntry> entries = sDrawables.get(res);
+            if (entries == null) {
+                entries = new SparseArray<DrawableEntry>();
+                sDrawables.put(res, entries);
+            }
+            entries.put(id, entry);
+        }
+    }
+
+    /**
+     * @return A paint set up the way a switch of this style sets up its own.
+     */
+    TextPaint newTextPaint(Resources res) {
+        final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.density = res.getDisplayMetrics().density;
+        if (hasTextAppearance) {
+            if (textSize != 0) {
+                paint.setTextSize(textSize);
+            }
+            Switch.applySwitchTypeface(paint, Switch.getTypefaceByIndex(typefaceIndex), styleIndex);
+        }
+        return paint;
+    }
+
+    /**
+     * @return A layout of {@code text} drawn with a copy of {@code paint}, shared by every
+     *         switch whose paint measures the same. The shared layouts are only drawn on the
+     *         UI thread, which sets the colour of their paint right before drawing.
+     */
+    static Layout getLayout(CharSequence text, TextPaint paint) {
+        if (!(text instanceof String)) {
+            // spans would be lost in the key
+            return newLayout(text, paint);
+        }
+        final LayoutKey key = new LayoutKey((String) text, paint);
+        LayoutEntry entry;
+        synchronized (SwitchStyle.class) {
+            entry = sLayouts.get(key);
+        }
+        if (entry != null) {
+            SwitchWarmUp.addSaved(entry.takeWarmUpNanos());
+            return entry.layout;
+        }
+        entry = new LayoutEntry(newLayout(text, new TextPaint(paint)));
+        synchronized (SwitchStyle.class) {
+            sLayouts.put(key, entry);
+        }
+        return entry.layout;
+    }
+
+    /**
+     * Builds the layout of {@code text} ahead of its first use.
+     */
+    static void prepareLayout(CharSequence text, TextPaint paint) {
+        if (!(text instanceof String)) {
+            return;
+        }
+        final LayoutKey key = new LayoutKey((String) text, paint);
+        synchronized (SwitchStyle.class) {
+            if (sLayouts.containsKey(key)) {
+                return;
+            }
+        }
+        final long start = System.nanoTime();
+        final LayoutEntry entry = new LayoutEntry(newLayout(text, new TextPaint(paint)));
+        entry.warmUpNanos = System.nanoTime() - start;
+        synchronized (SwitchStyle.class) {
+            sLayouts.put(key, entry);
+        }
+    }
+
+    private static Layout newLayout(CharSequence text, TextPaint paint) {
+        return new StaticLayout(text, paint,
+                                (int) Math.ceil(Layout.getDesiredWidth(text, paint)), Layout.Alignment.ALIGN_NORMAL, 1.f, 0, true);
+    }
+
+    private static final class DrawableEntry {
+        final Drawable.ConstantState state;
+        long warmUpNanos;
+
+        DrawableEntry(Drawable.ConstantState state) {
+            this.state = state;
+        }
+
+        synchronized long takeWarmUpNanos() {
+            final long nanos = warmUpNanos;
+            warmUpNanos = 0;
+            return nanos;
+        }
+    }
+
+    private static final class LayoutEntry {
+        final Layout layout;
+        long warmUpNanos;
+
+        LayoutEntry(Layout layout) {
+            this.layout = layout;
+        }
+
+        synchronized long takeWarmUpNanos() {
+            final long nanos = warmUpNanos;
+            warmUpNanos = 0;
+            return nanos;
+        }
+    }
+
+    /**
+     * What a layout of the on/off text depends on.
+     */
+    private static final class LayoutKey {
+        private final String mText;
+        private final float mTextSize;
+        private final Typeface mTypeface;
+        private final boolean mFakeBold;
+        private final float mSkewX;
+        private final float mDensity;
+
+        LayoutKey(String text, TextPaint paint) {
+            mText = text;
+            mTextSize = paint.getTextSize();
+            mTypeface = paint.getTypeface();
+            mFakeBold = paint.isFakeBoldText();
+            mSkewX = paint.getTextSkewX();
+            mDensity = paint.density;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LayoutKey)) {
+                return false;
+            }
+            final LayoutKey other = (LayoutKey) o;
+            return mText.equals(other.mText) && mTextSize == other.mTextSize
+                    && mTypeface == other.mTypeface && mFakeBold == other.mFakeBold
+                    && mSkewX == other.mSkewX && mDensity == other.mDensity;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mText.hashCode();
+            hash = 31 * hash + Float.floatToIntBits(mTextSize);
+            hash = 31 * hash + (mTypeface != null ? mTypeface.hashCode() : 0);
+            hash = 31 * hash + (mFakeBold ? 1 : 0);
+            hash = 31 * hash + Float.floatToIntBits(mSkewX);
+            return 31 * hash + Float.floatToIntBits(mDensity);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.jraf.android.backport.switchwidget;
+
+import android.content.res.ColorStateList;
+import android.graphics.ColorFilter;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.util.SparseArray;
+
+/**
+ * Colors of the switches whose thumb and tracks are grayscale masks, see
+ * {@code asb_thumbTint} and {@code asb_trackTint}.
+ * <p>
+ * A color is applied with a MULTIPLY filter, so white parts of a mask take the color
+ * and the shading of the gray parts is kept. There are only a few colors per theme, one
+ * per state, so the filters are made once and shared by every switch.
+ */
+final class SwitchTint {
+    private static final SparseArray<ColorFilter> sFilters = new SparseArray<ColorFilter>();
+
+    private SwitchTint() {
+    }
+
+    /**
+     * @return The shared filter multiplying by {@code color}.
+     */
+    static ColorFilter getFilter(int color) {
+        synchronized (sFilters) {
+            ColorFilter filter = sFilters.get(color);
+            if (filter == null) {
+                filter = new PorterDuffColorFilter(color, PorterDuff.Mode.MULTIPLY);
+                sFilters.put(color, filter);
+            }
+            return filter;
+        }
+    }
+
+    /**
+     * @return The color of {@code tint} for {@code state}, forced to checked or unchecked,
+     *         e.g. for the on and off tracks which are both drawn whatever the state.
+     */
+    static int getColor(ColorStateList tint, int[] state, boolean checked) {
+        int index = -1;
+        for (int i = 0; i < state.length; i++) {
+            if (state[i] == android.R.attr.state_checked) {
+                index = i;
+                break;
+            }
+        }
+        final int[] forced;
+        if (checked && index < 0) {
+            forced = new int[state.length + 1];
+            System.arraycopy(state, 0, forced, 0, state.length);
+            forced[state.length] = android.R.attr.state_checked;
+        } else if (!checked && index >= 0) {
+            forced = new int[state.length - 1];
+            System.arraycopy(state, 0, forced, 0, index);
+            System.arraycopy(state, index + 1, forced, index, state.length - index - 1);
+        } else {
+            forced = state;
+        }
+        return tint.getColorForState(forced, tint.getDefaultColor());
+    }
+}
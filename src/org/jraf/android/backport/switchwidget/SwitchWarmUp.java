@@ -0,0 +1,132 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.text.TextPaint;
+import android.util.Log;
+import android.view.ViewConfiguration;
+
+/**
+ * Prepares what the first {@link Switch}es of the app would otherwise build on the UI
+ * thread: the decoded track and thumb bitmaps and the layouts of the on/off labels.
+ * Everything is published to the caches the switches read from. The style attributes are
+ * still resolved once per activity theme, as they may refer to theme attributes.
+ * <p>
+ * Typical use, in {@code Application.onCreate()}:
+ * <pre>
+ * SwitchWarmUp.start(this, R.style.AppTheme, R.style.MySwitch);
+ * </pre>
+ * A switch declared with {@code style="@style/MySwitch"}, or with no style if none is
+ * given here, and no other switch attribute in an activity of that theme then finds
+ * its bitmaps decoded and its labels laid out. {@link #getSavedTime()} tells how much UI
+ * thread work it took away so far.
+ */
+public final class SwitchWarmUp {
+    private static final String TAG = "SwitchWarmUp";
+
+    private static final AtomicLong sSavedNanos = new AtomicLong();
+    private static Executor sExecutor;
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private volatile long mWarmUpNanos;
+
+    private SwitchWarmUp() {
+    }
+
+    /**
+     * Starts warming up on a background thread.
+     *
+     * @param context Any context of the app, its {@link Resources} are the ones warmed up.
+     * @param themeResId The theme of the activities showing the switches.
+     * @param styles The switch styles to prepare; none for the default style of the theme.
+     */
+    public static SwitchWarmUp start(Context context, int themeResId, int... styles) {
+        final Resources res = context.getResources();
+        final Resources.Theme theme = res.newTheme();
+        theme.applyStyle(themeResId, true);
+        // cheap, and not meant to be called off the UI thread
+        final ViewConfiguration config = ViewConfiguration.get(context);
+        final int[] styleResIds = styles.length > 0 ? styles.clone() : new int[] { 0 };
+
+        final SwitchWarmUp warmUp = new SwitchWarmUp();
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                warmUp.run(res, theme, config, styleResIds);
+            }
+        });
+        return warmUp;
+    }
+
+    private void run(Resources res, Resources.Theme theme, ViewConfiguration config, int[] styles) {
+        final long start = System.nanoTime();
+        try {
+            for (int styleRes : styles) {
+                final SwitchStyle style = SwitchStyle.prepare(res, theme, styleRes, config);
+                final TextPaint paint = style.newTextPaint(res);
+                if (style.textOn != null) {
+                    SwitchStyle.prepareLayout(style.textOn, paint);
+                }
+                if (style.textOff != null) {
+                    SwitchStyle.prepareLayout(style.textOff, paint);
+                }
+            }
+        } catch (RuntimeException e) {
+            // nothing is lost, the switches resolve what is missing themselves
+            Log.w(TAG, "warm-up failed", e);
+        } finally {
+            mWarmUpNanos = System.nanoTime() - start;
+            mDone.countDown();
+            Log.d(TAG, "warmed up " + styles.length + " styles in " + getWarmUpTime() + " ms");
+        }
+    }
+
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    /**
+     * Waits for the warm-up to finish, e.g. in tests.
+     */
+    public void await() throws InterruptedException {
+        mDone.await();
+    }
+
+    /**
+     * @return The time spent warming up in the background, in milliseconds; 0 until
+     *         {@link #isDone()}.
+     */
+    public long getWarmUpTime() {
+        return TimeUnit.NANOSECONDS.toMillis(mWarmUpNanos);
+    }
+
+    /**
+     * @return The time the switches built so far would have spent on the UI thread
+     *         decoding and laying out what was warmed up, in milliseconds.
+     */
+    public static long getSavedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(sSavedNanos.get());
+    }
+
+    /**
+     * Called by the caches when a switch uses a warmed up entry for the first time.
+     */
+    static void addSaved(long nanos) {
+        if (nanos > 0) {
+            sSavedNanos.addAndGet(nanos);
+        }
+    }
+
+    private static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor();
+        }
+        return sExecutor;
+    }
+}
@@ -10,86 +10,93 @@
 
 package org.jraf.android.backport.switchwidget;
 
+import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BlurMaskFilter;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
-import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
 import android.view.Gravity;
 
 public class ThumbDrawable extends Drawable {
     private static final String TAG = "ThumbDrawable";
 
-    private static final int WIDTH = 1000;
-    private static final int HEIGHT = 1;
-    private static final int COUNT = (WIDTH + 1) * (HEIGHT + 1);
-
-    private final float[] mVerts = new float[COUNT * 2];
-    private final float[] mOrigs = new float[COUNT * 2];
-
-    private final RectF mRect;
-    private final Paint mPaint;
+    // null for a procedural thumb
+    private final ThumbMesh mMesh;
 
     private final Drawable      mThumbDrawable;
-    private final Drawable      mRotateCircle;
+    private Drawable            mRotateCircle;
+    // the circle is decoded on first use when given as an id
+    private final Resources     mResources;
+    private final int           mRotateCircleId;
     private final Bitmap        mThumbBitmap;
 
+    // Procedural thumb, see asb_procedural: diameter of the circle, 0 for a bitmap thumb
+    private static final int PROCEDURAL_COLOR = 0xfff1f1f1;
+    private static final int SHADOW_COLOR = 0x4d000000;
+    // Blurred shadow circles by (diameter << 16 | blur), shared by every thumb
+    private static final SparseArray<Bitmap> sShadows = new SparseArray<Bitmap>();
+    private final int mDiameter;
+    private final int mShadowOffset;
+    private final Bitmap mShadow;
+    private final SwitchCanvas.IntRect mSrc = new SwitchCanvas.IntRect();
+    private final SwitchCanvas.IntRect mDst = new SwitchCanvas.IntRect();
+    private final SwitchCanvas.IntRect mCircleBounds = new SwitchCanvas.IntRect();
+
+    private final AndroidSwitchCanvas mCanvas = new AndroidSwitchCanvas();
+
     private int mGravity = Gravity.NO_GRAVITY;
+    private SwitchQuality.Tier mTier = SwitchQuality.Tier.FULL;
+    // the thumb bitmap is a grayscale mask multiplied by mColor, see setTint()
+    private boolean mTinted = false;
+    // the color the thumb is drawn with before setAlpha() fades it
+    private int mColor;
+    private int mAlpha = 255;
     private boolean mOnWorking = false;
 
-    static void setXY(float[] array, int index, float x, float y) {
-        array[index * 2 + 0] = x;
-        array[index * 2 + 1] = y;
-
+    public void setOnWorking(boolean working, boolean dir) {
+        mOnWorking = working;
+        mWorkingLevel = dir ? 0 : 10000;
+        final Drawable circle = working ? getRotateCircle() : mRotateCircle;
+        if (circle != null) {
+            circle.setLevel(mWorkingLevel);
+            circle.setVisible(working, true);
+        }
     }
 
-    static float getX(float[] array, int index) {
-        return array[index * 2 + 0];
+    private Drawable getRotateCircle() {
+        if (mRotateCircle == null && mRotateCircleId != 0) {
+            mRotateCircle = SwitchStyle.loadDrawable(mResources, mRotateCircleId);
+            mRotateCircle.setLevel(mWorkingLevel);
+            mRotateCircle.setAlpha(mAlpha);
+        }
+        return mRotateCircle;
     }
 
-    static float getY(float[] array, int index) {
-        return array[index * 2 + 1];
+    /**
+     * Colors the thumb, its bitmap then being a grayscale mask.
+     */
+    void setTint(int color) {
+        if (mTinted && mColor == color) {
+            return;
+        }
+        mTinted = true;
+        mColor = color;
     }
 
-    public void setOnWorking(boolean working, boolean dir) {
-        mOnWorking = working;
-        mRotateCircle.setLevel(dir ? 0 : 10000);
-        mRotateCircle.setVisible(working, true);
-    }
-
-    private void squashMatrix() {
-        int index = 0;
-        final float dia = mThumbDrawable.getIntrinsicWidth();
-        final float width = dia + (dia * getLevel()/ 10000);
-        for (int y = 0; y <= HEIGHT; y++) {
-            float fx = 0.0f;
-            float fy = dia * y / HEIGHT;
-            for (int x = 0; x <= WIDTH; x++) {
-                fx += dia / WIDTH;
-                if (x == WIDTH/2) {
-                    fx += (width - dia);
-                }
-                setXY(mVerts, index, fx, fy);
-                index += 1;
-            }
-        }
+    void setTier(SwitchQuality.Tier tier) {
+        mTier = tier;
     }
 
-    void initMatrix(float bitmap_w, float bitmap_h) {
-        int index = 0;
-        for (int y = 0; y <= HEIGHT; y++) {
-            float fy = bitmap_h * y / HEIGHT;
-            float fx = 0.0f;
-            for (int x = 0; x <= WIDTH; x++) {
-                fx += bitmap_w / WIDTH;
-                setXY(mOrigs, index, fx, fy);
-                setXY(mVerts, index, fx, fy);
-                index += 1;
-            }
-        }
+    /**
+     * @return The level the thumb is drawn with, 0 when the tier draws no squash.
+     */
+    private int getSquashLevel() {
+        return mTier == SwitchQuality.Tier.MINIMAL ? 0 : getLevel();
     }
 
     private int mPosition = 0;
@@ -107,19 +114,58 @@ public class ThumbDrawable extends Drawable {
 
     public int getWorkingLevel() {
         // mRotateCircle.setAlpha(0x30);
-        return mRotateCircle.getLevel();
+        return mWorkingLevel;
     }
 
     public void setWorkingLevel(int level) {
-        mRotateCircle.setLevel(level);
+        mWorkingLevel = level;
+        if (mRotateCircle != null) {
+            mRotateCircle.setLevel(level);
+        }
     }
 
     public ThumbDrawable(Drawable drawable, Drawable circle, int squash_ratio) {
-        mRect = new RectF();
-        mPaint = new Paint();
+        this(drawable, circle, null, 0, squash_ratio);
+    }
+
+    /**
+     * @param circleId The working spinner, decoded from {@code res} the first time the
+     *            thumb works.
+     */
+    ThumbDrawable(Drawable drawable, Resources res, int circleId, int squash_ratio) {
+        this(drawable, null, res, circleId, squash_ratio);
+    }
+
+    /**
+     * A procedural thumb: a circle of {@code diameter} widening into a rounded rectangle
+     * when squashed, over a blurred shadow {@code shadowOffset} lower.
+     */
+    ThumbDrawable(int diameter, int shadowOffset, Resources res, int circleId, int squash_ratio) {
+        mColor = PROCEDURAL_COLOR;
+        mMaxSquashRatio = squash_ratio;
+        mThumbDrawable = null;
+        mThumbBitmap = null;
+        mMesh = null;
+        mRotateCircle = null;
+        mResources = res;
+        mRotateCircleId = circleId;
+        mDiameter = diameter;
+        mShadowOffset = shadowOffset;
+        mShadow = shadowOffset > 0 ? getShadow(diameter, shadowOffset) : null;
+    }
+
+    private ThumbDrawable(Drawable drawable, Drawable circle, Resources res, int circleId, int squash_ratio) {
+        // untinted, the color only carries the alpha of setAlpha()
+        mColor = 0xffffffff;
         mMaxSquashRatio = squash_ratio;
         mThumbDrawable = drawable;
         mRotateCircle = circle;
+        mResources = res;
+        mRotateCircleId = circleId;
+        mMesh = new ThumbMesh();
+        mDiameter = 0;
+        mShadowOffset = 0;
+        mShadow = null;
         if (drawable instanceof BitmapDrawable) {
             final BitmapDrawable bm = (BitmapDrawable) drawable;
             mThumbBitmap = bm.getBitmap();
@@ -138,25 +184,48 @@ public class ThumbDrawable extends Drawable {
         return false;
     }
 
+    /**
+     * @return The circle of a procedural thumb blurred by {@code blur}, made once.
+     */
+    private static Bitmap getShadow(int diameter, int blur) {
+        final int key = diameter << 16 | blur;
+        synchronized (sShadows) {
+            Bitmap shadow = sShadows.get(key);
+            if (shadow == null) {
+                final int size = diameter + 2 * blur;
+                shadow = Bitmap.createBitmap(size, size, Bitmap.Config.ALPHA_8);
+                final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+                paint.setMaskFilter(new BlurMaskFilter(blur, BlurMaskFilter.Blur.NORMAL));
+                new Canvas(shadow).drawCircle(size / 2f, size / 2f, diameter / 2f, paint);
+                sShadows.put(key, shadow);
+            }
+            return shadow;
+        }
+    }
+
+    private int getBaseWidth() {
+        return mThumbDrawable != null ? mThumbDrawable.getIntrinsicWidth() : mDiameter;
+    }
+
     @Override
     public int getIntrinsicHeight() {
-        return mThumbDrawable.getIntrinsicHeight();
+        return mThumbDrawable != null ? mThumbDrawable.getIntrinsicHeight() : mDiameter;
     }
 
     int getWhiteSpaceWidth() {
-        final int w = mThumbDrawable.getIntrinsicWidth();
-        return (w * (mMaxSquashRatio - getLevel()) / 10000);
+        final int w = getBaseWidth();
+        return (w * (mMaxSquashRatio - getSquashLevel()) / 10000);
     }
 
     @Override
     public int getIntrinsicWidth() {
-        final int w = mThumbDrawable.getIntrinsicWidth();
+        final int w = getBaseWidth();
         return w + (w * mMaxSquashRatio / 10000);
     }
 
     private int getActualWidth() {
-        final int w = mThumbDrawable.getIntrinsicWidth();
-        return w + (w * getLevel() / 10000);
+        final int w = getBaseWidth();
+        return w + (w * getSquashLevel() / 10000);
     }
 
     void setGravity(int gravity) {
@@ -178,29 +247,84 @@ public class ThumbDrawable extends Drawable {
 
     @Override
     public void draw(Canvas canvas) {
+        mCanvas.setCanvas(canvas);
+        draw(mCanvas);
+        mCanvas.setCanvas(null);
+    }
+
+    public void draw(SwitchCanvas canvas) {
         canvas.save();
         final int x = getOffsetX();
         canvas.translate(getOffsetX(), 0);
-        squashMatrix();
-        canvas.drawBitmapMesh(mThumbBitmap, WIDTH, HEIGHT, mVerts, 0, null, 0, null);
-        if (mOnWorking) {
+        if (mThumbBitmap != null) {
+            final boolean coarse = mTier != SwitchQuality.Tier.FULL;
+            final float[] verts = mMesh.getVerts(mThumbDrawable.getIntrinsicWidth(), getSquashLevel(), coarse);
+            canvas.drawBitmapMesh(mThumbBitmap, ThumbMesh.getMeshWidth(coarse), ThumbMesh.HEIGHT, verts,
+                                  fade(mColor));
+        } else {
+            drawShape(canvas);
+        }
+        if (mOnWorking && mRotateCircle != null && mTier != SwitchQuality.Tier.MINIMAL) {
             final int cx = x + getActualWidth() / 2;
             final int cy = getIntrinsicHeight() / 2;
             // final int r = mRotateCircle.getIntrinsicWidth()/2;
             final int r = 20;
-            mRotateCircle.setBounds(cx-r, cy-r, cx + r, cy+r);
-            mRotateCircle.draw(canvas);
+            mCircleBounds.set(cx-r, cy-r, cx + r, cy+r);
+            canvas.drawDrawable(mRotateCircle, mCircleBounds);
         }
         canvas.restore();
     }
 
+    /**
+     * Draws a procedural thumb: squashing only widens the rounded rectangle, and the
+     * shadow circle is split in halves around a stretched middle column.
+     */
+    private void drawShape(SwitchCanvas canvas) {
+        final int width = getActualWidth();
+        if (mShadow != null) {
+            final int size = mShadow.getWidth();
+            final int half = size / 2;
+            final int left = -mShadowOffset;
+            final int right = width + mShadowOffset;
+            // blurred by the offset and drawn that much lower: its top is the body's
+            final int top = 0;
+            final int bottom = top + size;
+            mSrc.set(0, 0, half, size);
+            mDst.set(left, top, left + half, bottom);
+            final int shadow = fade(SHADOW_COLOR);
+            canvas.drawBitmap(mShadow, mSrc, mDst, shadow);
+            mSrc.set(half, 0, half + 1, size);
+            mDst.set(left + half, top, right - (size - half - 1), bottom);
+            canvas.drawBitmap(mShadow, mSrc, mDst, shadow);
+            mSrc.set(half + 1, 0, size, size);
+            mDst.set(right - (size - half - 1), top, right, bottom);
+            canvas.drawBitmap(mShadow, mSrc, mDst, shadow);
+        }
+        canvas.drawRoundRect(0, 0, width, mDiameter, mDiameter / 2f, fade(mColor));
+    }
+
     @Override
     public int getOpacity() {
         return PixelFormat.OPAQUE;
     }
 
+    /**
+     * Fades the whole thumb, e.g. a disabled one without disabled images, on top of the
+     * alpha of its tint.
+     */
     @Override
-    public void setAlpha(int arg0) {
+    public void setAlpha(int alpha) {
+        if (alpha == mAlpha) {
+            return;
+        }
+        mAlpha = alpha;
+        if (mRotateCircle != null) {
+            mRotateCircle.setAlpha(alpha);
+        }
+    }
+
+    private int fade(int color) {
+        return (color & 0xffffff) | ((color >>> 24) * mAlpha / 255) << 24;
     }
 
     @Override
@@ -0,0 +1,87 @@
+package org.jraf.android.backport.switchwidget;
+
+/**
+ * The vertices a bitmap thumb is drawn through, see
+ * {@link SwitchCanvas#drawBitmapMesh(Object, int, int, float[], int)}: a square of the
+ * diameter of the thumb, one row high, whose middle is stretched as the thumb squashes.
+ * <p>
+ * The fine mesh has {@link #WIDTH} columns; the coarse one, drawn by
+ * {@link SwitchQuality.Tier#REDUCED}, only {@link #COARSE_WIDTH} and stretches its two
+ * middle columns. The vertices are only computed again when the level, the diameter or
+ * the mesh changes, e.g. not for the many cells of a {@link SwitchPanel}.
+ */
+final class ThumbMesh {
+    static final int WIDTH = 1000;
+    static final int HEIGHT = 1;
+    static final int COARSE_WIDTH = 8;
+
+    private final float[] mVerts = new float[(WIDTH + 1) * (HEIGHT + 1) * 2];
+
+    private int mLevel = -1;
+    private float mDiameter = -1;
+    private boolean mCoarse = false;
+
+    static void setXY(float[] array, int index, float x, float y) {
+        array[index * 2 + 0] = x;
+        array[index * 2 + 1] = y;
+    }
+
+    static float getX(float[] array, int index) {
+        return array[index * 2 + 0];
+    }
+
+    static float getY(float[] array, int index) {
+        return array[index * 2 + 1];
+    }
+
+    static int getMeshWidth(boolean coarse) {
+        return coarse ? COARSE_WIDTH : WIDTH;
+    }
+
+    /**
+     * @param level The squash, 0 for a circle to 10000 for a thumb twice as wide.
+     * @return The vertices of the mesh of {@link #getMeshWidth(boolean)} by
+     *         {@link #HEIGHT}, owned by this mesh: only valid until the next call.
+     */
+    float[] getVerts(float diameter, int level, boolean coarse) {
+        if (level == mLevel && diameter == mDiameter && coarse == mCoarse) {
+            return mVerts;
+        }
+        mLevel = level;
+        mDiameter = diameter;
+        mCoarse = coarse;
+        int index = 0;
+        final float dia = diameter;
+        final float width = dia + (dia * level / 10000);
+        if (coarse) {
+            final int half = COARSE_WIDTH / 2;
+            for (int y = 0; y <= HEIGHT; y++) {
+                final float fy = dia * y / HEIGHT;
+                for (int x = 0; x <= COARSE_WIDTH; x++) {
+                    float fx = dia * x / COARSE_WIDTH;
+                    if (x == half) {
+                        fx += (width - dia) / 2;
+                    } else if (x > half) {
+                        fx += (width - dia);
+                    }
+                    setXY(mVerts, index, fx, fy);
+                    index += 1;
+                }
+            }
+            return mVerts;
+        }
+        for (int y = 0; y <= HEIGHT; y++) {
+            float fx = 0.0f;
+            float fy = dia * y / HEIGHT;
+            for (int x = 0; x <= WIDTH; x++) {
+                fx += dia / WIDTH;
+                if (x == WIDTH/2) {
+                    fx += (width - dia);
+                }
+                setXY(mVerts, index, fx, fy);
+                index += 1;
+            }
+        }
+        return mVerts;
+    }
+}
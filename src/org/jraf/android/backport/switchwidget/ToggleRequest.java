@@ -0,0 +1,156 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * A state change the user asked for on a {@link Switch}, handed to its
+ * {@link Switch.OnToggleRequestListener} while the thumb shows the working spinner.
+ * <p>
+ * The app applies the change wherever it lives and reports the outcome with
+ * {@link #succeed()} or {@link #fail()}, from any thread. Until then the switch keeps
+ * spinning; taps made meanwhile are coalesced and only the state the user ends up
+ * wanting is requested next. A request that is not resolved within
+ * {@link Switch#setToggleTimeout(long)} times out and the thumb goes back.
+ * <p>
+ * As a {@link Future} it yields the checked state the switch settles on for this request.
+ * A request cancelled, timed out or overridden by {@link Switch#setChecked(boolean)}
+ * settles nothing: {@link #get()} throws a {@link CancellationException}.
+ */
+public final class ToggleRequest implements Future<Boolean> {
+
+    static final int PENDING = 0;
+    static final int SUCCEEDED = 1;
+    static final int FAILED = 2;
+    static final int CANCELLED = 3;
+    static final int TIMED_OUT = 4;
+
+    // View.post() from another thread is lost while the view is detached, before Nougat
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Switch mSwitch;
+    private final boolean mChecked;
+    private final AtomicInteger mState = new AtomicInteger(PENDING);
+    private final CountDownLatch mDone = new CountDownLatch(1);
+
+    ToggleRequest(Switch view, boolean checked) {
+        mSwitch = view;
+        mChecked = checked;
+    }
+
+    /**
+     * @return The checked state the user asked for.
+     */
+    public boolean getRequestedState() {
+        return mChecked;
+    }
+
+    /**
+     * Reports that the requested state was applied; the thumb settles on it.
+     *
+     * @return false if the request was already resolved, e.g. it timed out.
+     */
+    public boolean succeed() {
+        return finish(SUCCEEDED);
+    }
+
+    /**
+     * Reports that the requested state could not be applied; the thumb goes back.
+     *
+     * @return false if the request was already resolved, e.g. it timed out.
+     */
+    public boolean fail() {
+        return finish(FAILED);
+    }
+
+    /**
+     * Same as {@link #fail()}, but the request reports itself as cancelled.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(CANCELLED);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        final int state = mState.get();
+        return state == CANCELLED || state == TIMED_OUT;
+    }
+
+    @Override
+    public boolean isDone() {
+        return mState.get() != PENDING;
+    }
+
+    public boolean isTimedOut() {
+        return mState.get() == TIMED_OUT;
+    }
+
+    boolean isSucceeded() {
+        return mState.get() == SUCCEEDED;
+    }
+
+    /**
+     * Called on the UI thread by the switch when the deadline passes.
+     */
+    boolean timeOut() {
+        return resolve(TIMED_OUT);
+    }
+
+    /**
+     * Called on the UI thread by the switch when it drops the request for a state set
+     * by the app, so that no thread waits on it forever.
+     */
+    boolean abandon() {
+        return resolve(CANCELLED);
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException {
+        mDone.await();
+        return getResult();
+    }
+
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private Boolean getResult() {
+        if (isCancelled()) {
+            throw new CancellationException(isTimedOut() ? "timed out" : "cancelled");
+        }
+        return isSucceeded() ? mChecked : !mChecked;
+    }
+
+    private boolean finish(int state) {
+        if (!resolve(state)) {
+            return false;
+        }
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSwitch.onToggleRequestFinished(ToggleRequest.this);
+            }
+        });
+        return true;
+    }
+
+    private boolean resolve(int state) {
+        if (mState.compareAndSet(PENDING, state)) {
+            mDone.countDown();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,69 @@
+package org.jraf.android.backport.switchwidget;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Track of a procedural switch, see {@code asb_procedural}: a rectangle with fully
+ * rounded ends, filled with one color. It holds no bitmap and looks the same at any
+ * density.
+ */
+final class TrackDrawable extends Drawable {
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF mRect = new RectF();
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColor;
+
+    TrackDrawable(int width, int height, int color) {
+        mWidth = width;
+        mHeight = height;
+        mColor = color;
+        mPaint.setColor(color);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Rect bounds = getBounds();
+        mRect.set(bounds.left, bounds.top, bounds.right, bounds.bottom);
+        final float radius = bounds.height() / 2f;
+        canvas.drawRoundRect(mRect, radius, radius, mPaint);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        // the alpha of the color, scaled, like a bitmap with translucent pixels
+        final int a = (mColor >>> 24) * alpha / 255;
+        if (a != mPaint.getAlpha()) {
+            mPaint.setAlpha(a);
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter filter) {
+        mPaint.setColorFilter(filter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
@@ -26,14 +26,22 @@
 
 package org.jraf.android.backport.switchwidget;
 
+import java.lang.ref.WeakReference;
+import java.util.Map;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.preference.Preference;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.ViewParent;
 //import android.view.accessibility.AccessibilityEvent;
 //import android.view.accessibility.AccessibilityManager;
 import android.widget.TextView;
@@ -50,6 +58,29 @@ public abstract class TwoStatePreference extends Preference {
     boolean mChecked;
 //    private boolean mSendClickAccessibilityEvent;
     private boolean mDisableDependentsState;
+    private boolean mWriteBehind;
+    private TwoStateStore mStore;
+    // set when the framework dispatched the initial value while attaching
+    private boolean mInitialValueSet;
+
+    private static Handler sHandler;
+    private boolean mNotifySuppressed;
+    private boolean mNotifyPosted;
+    private int mBindGeneration;
+    private final Runnable mPostedNotify = new Runnable() {
+        @Override
+        public void run() {
+            mNotifyPosted = false;
+            notifyChanged();
+        }
+    };
+    private static TwoStateStore sDefaultStore;
+    // set by TwoStateTransaction while it applies its changes, see persistChecked()
+    Map<SharedPreferences, SharedPreferences.Editor> mPersistBatch;
+    // set by TwoStateTransaction, which notifies the dependents once at the end
+    boolean mDependencyChangeHeld;
+    // the row this preference was last bound to, see getBoundList()
+    private WeakReference<View> mBoundView;
 
 
     public TwoStatePreference(Context context, AttributeSet attrs, int defStyle) {
@@ -87,12 +118,210 @@ public abstract class TwoStatePreference extends Preference {
     public void setChecked(boolean checked) {
         if (mChecked != checked) {
             mChecked = checked;
-            persistBoolean(checked);
+            persistChecked(checked, mPersistBatch);
             notifyDependencyChange(shouldDisableDependents());
             notifyChanged();
         }
     }
 
+    /**
+     * Saves the checked state wherever this preference keeps it.
+     *
+     * @param batch If not null, plain SharedPreferences writes are added to the editor
+     *            kept there for their file instead of being committed one by one.
+     */
+    void persistChecked(boolean checked, Map<SharedPreferences, SharedPreferences.Editor> batch) {
+        final TwoStateStore store = getStore();
+        if (store != null) {
+            if (isPersistent() && hasKey()) {
+                store.putBoolean(getKey(), checked);
+            }
+            return;
+        }
+        if (!shouldPersist()) {
+            return;
+        }
+        final SharedPreferences prefs = getSharedPreferences();
+        if (mWriteBehind) {
+            PreferenceWriteBehind.putBoolean(prefs, getKey(), checked);
+        } else if (batch != null) {
+            SharedPreferences.Editor editor = batch.get(prefs);
+            if (editor == null) {
+                editor = prefs.edit();
+                batch.put(prefs, editor);
+            }
+            editor.putBoolean(getKey(), checked);
+        } else {
+            persistBoolean(checked);
+        }
+        final TwoStatePreload preload = TwoStatePreload.getInstalled(prefs);
+        if (preload != null) {
+            preload.put(getKey(), checked);
+        }
+    }
+
+    /**
+     * Notifies a change of a displayed property. Notifications are dropped while
+     * suppressed, and otherwise merged into a single {@link #notifyChanged()} posted
+     * to the UI thread, so setting several properties rebinds the view once.
+     */
+    void notifyChangedCoalesced() {
+        if (mNotifySuppressed) {
+            return;
+        }
+        // the data changed now, even if the notification comes later
+        mBindGeneration++;
+        if (mNotifyPosted) {
+            return;
+        }
+        mNotifyPosted = true;
+        if (sHandler == null) {
+            sHandler = new Handler(Looper.getMainLooper());
+        }
+        sHandler.post(mPostedNotify);
+    }
+
+    /**
+     * Drops the property change notifications, e.g. while a subclass constructor sets
+     * its initial values and nothing is bound yet, or while a {@link TwoStateTransaction}
+     * applies its changes and rebinds once at the end.
+     */
+    void setNotifySuppressed(boolean suppressed) {
+        mNotifySuppressed = suppressed;
+    }
+
+    /**
+     * @return A number changed every time the displayed state of this preference changes,
+     *         so a view bound at the same generation needs no rebinding.
+     */
+    int getBindGeneration() {
+        return mBindGeneration;
+    }
+
+    @Override
+    protected void notifyChanged() {
+        mBindGeneration++;
+        if (mNotifySuppressed) {
+            return;
+        }
+        super.notifyChanged();
+    }
+
+    @Override
+    public void notifyDependencyChange(boolean disableDependents) {
+        if (mDependencyChangeHeld) {
+            return;
+        }
+        super.notifyDependencyChange(disableDependents);
+    }
+
+    @Override
+    protected void onBindView(View view) {
+        super.onBindView(view);
+        mBoundView = new WeakReference<View>(view);
+    }
+
+    /**
+     * @return The list showing the row this preference was last bound to, or null if it
+     *         was never bound or the row is gone.
+     */
+    ViewParent getBoundList() {
+        final View view = mBoundView != null ? mBoundView.get() : null;
+        return view != null ? view.getParent() : null;
+    }
+
+    /**
+     * Lets {@link TwoStateTransaction} rebind a screen once for all its changes.
+     */
+    void notifyHierarchyChanged() {
+        notifyChanged();
+    }
+
+    /**
+     * Sets whether changes are written behind: the checked state is updated at once,
+     * but the write to the {@link SharedPreferences} is batched with other changes and
+     * committed asynchronously by {@link PreferenceWriteBehind}. Call
+     * {@link PreferenceWriteBehind#flush()} from {@code onPause()} to push pending
+     * writes early.
+     *
+     * @param writeBehind Whether to write behind.
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        mWriteBehind = writeBehind;
+    }
+
+    /**
+     * @return Whether changes are written behind.
+     * @see #setWriteBehind(boolean)
+     */
+    public boolean isWriteBehind() {
+        return mWriteBehind;
+    }
+
+    /**
+     * Sets where the checked state is kept, instead of the {@link SharedPreferences}.
+     *
+     * @param store The store, or null to use the default one.
+     * @see #setDefaultStore(TwoStateStore)
+     */
+    public void setStore(TwoStateStore store) {
+        mStore = store;
+    }
+
+    /**
+     * @return The store used by this preference, or null if it uses the
+     *         {@link SharedPreferences}.
+     */
+    public TwoStateStore getStore() {
+        return mStore != null ? mStore : sDefaultStore;
+    }
+
+    /**
+     * Sets the store used by all two-state preferences that have none of their own,
+     * e.g. a {@link MappedTwoStateStore} opened at application start. Null, the
+     * default, keeps them in the {@link SharedPreferences}.
+     */
+    public static void setDefaultStore(TwoStateStore store) {
+        sDefaultStore = store;
+    }
+
+    @Override
+    protected boolean getPersistedBoolean(boolean defaultReturnValue) {
+        final TwoStateStore store = getStore();
+        if (store != null) {
+            if (!isPersistent() || !hasKey()) {
+                return defaultReturnValue;
+            }
+            if (store.contains(getKey()) || !shouldPersist() || !getSharedPreferences().contains(getKey())) {
+                return store.getBoolean(getKey(), defaultReturnValue);
+            }
+            // kept in the SharedPreferences before the store was set, carried over once
+            final boolean value = getSharedPreferencesBoolean(defaultReturnValue);
+            store.putBoolean(getKey(), value);
+            return value;
+        }
+        return getSharedPreferencesBoolean(defaultReturnValue);
+    }
+
+    private boolean getSharedPreferencesBoolean(boolean defaultReturnValue) {
+        if (mWriteBehind && shouldPersist()) {
+            final Boolean pending = PreferenceWriteBehind.getPendingBoolean(getSharedPreferences(), getKey());
+            if (pending != null) {
+                return pending;
+            }
+        }
+        if (shouldPersist()) {
+            final TwoStatePreload preload = TwoStatePreload.getInstalled(getSharedPreferences());
+            if (preload != null) {
+                final Boolean preloaded = preload.get(getKey());
+                if (preloaded != null) {
+                    return preloaded;
+                }
+            }
+        }
+        return super.getPersistedBoolean(defaultReturnValue);
+    }
+
     /**
      * Returns the checked state.
      *
@@ -116,7 +345,7 @@ public abstract class TwoStatePreference extends Preference {
     public void setSummaryOn(CharSequence summary) {
         mSummaryOn = summary;
         if (isChecked()) {
-            notifyChanged();
+            notifyChangedCoalesced();
         }
     }
 
@@ -144,7 +373,7 @@ public abstract class TwoStatePreference extends Preference {
     public void setSummaryOff(CharSequence summary) {
         mSummaryOff = summary;
         if (!isChecked()) {
-            notifyChanged();
+            notifyChangedCoalesced();
         }
     }
 
@@ -192,10 +421,28 @@ public abstract class TwoStatePreference extends Preference {
 
     @Override
     protected void onSetInitialValue(boolean restoreValue, Object defaultValue) {
+        mInitialValueSet = true;
+        // the framework only looks for a persisted value in the SharedPreferences
+        restoreValue |= isInStore();
         setChecked(restoreValue ? getPersistedBoolean(mChecked)
                 : (Boolean) defaultValue);
     }
 
+    @Override
+    protected void onAttachedToHierarchy(PreferenceManager preferenceManager) {
+        mInitialValueSet = false;
+        super.onAttachedToHierarchy(preferenceManager);
+        // without a default value onSetInitialValue() is not called for a stored value
+        if (!mInitialValueSet && isInStore()) {
+            setChecked(getPersistedBoolean(mChecked));
+        }
+    }
+
+    private boolean isInStore() {
+        final TwoStateStore store = getStore();
+        return store != null && isPersistent() && hasKey() && store.contains(getKey());
+    }
+
 //    void sendAccessibilityEvent(View view) {
 //        // Since the view is still not attached we create, populate,
 //        // and send the event directly since we do not know when it
@@ -217,23 +464,28 @@ public abstract class TwoStatePreference extends Preference {
      */
     void syncSummaryView(View view) {
         // Sync the summary view
-        TextView summaryView = (TextView) view.findViewById(android.R.id.summary);
+        syncSummaryView((TextView) view.findViewById(android.R.id.summary));
+    }
+
+    /**
+     * Sync a summary view with the correct summary text, only touching it when its text or
+     * visibility actually differ.
+     * @param summaryView The summary view, may be null
+     */
+    void syncSummaryView(TextView summaryView) {
         if (summaryView != null) {
-            boolean useDefaultSummary = true;
+            CharSequence text = null;
             if (mChecked && mSummaryOn != null) {
-                summaryView.setText(mSummaryOn);
-                useDefaultSummary = false;
+                text = mSummaryOn;
             } else if (!mChecked && mSummaryOff != null) {
-                summaryView.setText(mSummaryOff);
-                useDefaultSummary = false;
+                text = mSummaryOff;
+            } else {
+                text = getSummary();
             }
 
-            if (useDefaultSummary) {
-                final CharSequence summary = getSummary();
-                if (summary != null) {
-                    summaryView.setText(summary);
-                    useDefaultSummary = false;
-                }
+            final boolean useDefaultSummary = text == null;
+            if (!useDefaultSummary && !TextUtils.equals(summaryView.getText(), text)) {
+                summaryView.setText(text);
             }
 
             int newVisibility = View.GONE;
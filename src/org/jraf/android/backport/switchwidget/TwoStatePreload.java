@@ -0,0 +1,133 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * A snapshot of all the boolean values of a {@link SharedPreferences}, read in one pass,
+ * that {@link TwoStatePreference}s seed their checked state from while a preference
+ * screen is built, instead of each reading its own value.
+ * <p>
+ * Only the value read goes through the snapshot. Whether a preference restores a value at
+ * all is still decided by the private {@code Preference.dispatchSetInitialValue()} of the
+ * framework, through {@code shouldPersist()} and {@code SharedPreferences.contains()} per
+ * preference. That check is a lookup in the in-memory map of the SharedPreferences, which
+ * it shares with the snapshot's read: once that is done, it does no I/O.
+ * <p>
+ * Typical use, in {@code onCreate()}:
+ * <pre>
+ * TwoStatePreload preload = TwoStatePreload.start(prefs); // as early as possible
+ * ...
+ * preload.install();
+ * addPreferencesFromResource(R.xml.settings);
+ * TwoStatePreload.uninstall();
+ * </pre>
+ */
+public final class TwoStatePreload {
+    private static final String TAG = "TwoStatePreload";
+
+    private static TwoStatePreload sInstalled;
+
+    private final SharedPreferences mPrefs;
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+    private final Map<String, Boolean> mValues = new HashMap<String, Boolean>();
+    private volatile boolean mInvalid = false;
+
+    private TwoStatePreload(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * Reads the values of {@code prefs} on the calling thread.
+     */
+    public static TwoStatePreload load(SharedPreferences prefs) {
+        final TwoStatePreload preload = new TwoStatePreload(prefs);
+        preload.read();
+        return preload;
+    }
+
+    /**
+     * Reads the values of {@code prefs} on a background thread. Preferences asking for a
+     * value before the read is done wait for it.
+     */
+    public static TwoStatePreload start(SharedPreferences prefs) {
+        final TwoStatePreload preload = new TwoStatePreload(prefs);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                preload.read();
+            }
+        }, TAG).start();
+        return preload;
+    }
+
+    private void read() {
+        try {
+            for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+                if (entry.getValue() instanceof Boolean) {
+                    mValues.put(entry.getKey(), (Boolean) entry.getValue());
+                }
+            }
+        } finally {
+            mLoaded.countDown();
+        }
+    }
+
+    /**
+     * Makes two-state preferences read from this snapshot until {@link #uninstall()}.
+     */
+    public void install() {
+        sInstalled = this;
+    }
+
+    public static void uninstall() {
+        sInstalled = null;
+    }
+
+    /**
+     * @return The installed snapshot if it was taken from {@code prefs}, or null.
+     */
+    static TwoStatePreload getInstalled(SharedPreferences prefs) {
+        final TwoStatePreload preload = sInstalled;
+        return preload != null && preload.mPrefs == prefs ? preload : null;
+    }
+
+    /**
+     * @return The value of {@code key} in the snapshot, or null if it has none.
+     */
+    Boolean get(String key) {
+        if (!awaitLoaded()) {
+            return null;
+        }
+        return mValues.get(key);
+    }
+
+    /**
+     * Keeps the snapshot in line with a value changed while it is installed.
+     */
+    void put(String key, boolean value) {
+        if (awaitLoaded()) {
+            mValues.put(key, value);
+        }
+    }
+
+    private boolean awaitLoaded() {
+        if (mInvalid) {
+            return false;
+        }
+        try {
+            mLoaded.await();
+            return true;
+        } catch (InterruptedException e) {
+            // the snapshot may now miss a change, stop using it
+            Log.w(TAG, "interrupted while preloading", e);
+            mInvalid = true;
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
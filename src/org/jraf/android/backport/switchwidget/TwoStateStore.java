@@ -0,0 +1,20 @@
+package org.jraf.android.backport.switchwidget;
+
+/**
+ * Where {@link TwoStatePreference}s keep their checked state when they do not use
+ * {@link android.content.SharedPreferences}.
+ *
+ * @see TwoStatePreference#setStore(TwoStateStore)
+ * @see MappedTwoStateStore
+ */
+public interface TwoStateStore {
+
+    boolean contains(String key);
+
+    /**
+     * @return The value stored for {@code key}, or {@code defValue} if none.
+     */
+    boolean getBoolean(String key, boolean defValue);
+
+    void putBoolean(String key, boolean value);
+}
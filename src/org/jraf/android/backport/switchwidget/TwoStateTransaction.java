@@ -0,0 +1,152 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.SharedPreferences;
+import android.preference.Preference;
+import android.preference.PreferenceGroup;
+import android.preference.PreferenceScreen;
+import android.util.Log;
+import android.view.ViewParent;
+
+/**
+ * Changes the checked state of many {@link TwoStatePreference}s at once, e.g. for an
+ * "enable all" or "restore defaults" action.
+ * <p>
+ * Calling {@link TwoStatePreference#setChecked(boolean)} on each preference persists
+ * and rebinds the list once per preference. A transaction still goes through
+ * {@code setChecked()}, so subclasses see every change, but writes the states with one
+ * commit per {@link SharedPreferences} file and holds back the notifications: the
+ * dependents of a preference are told once, if its net change flips them, and each
+ * screen showing changed preferences is rebound once at the end. Screens are told
+ * apart by the root of the hierarchy when the transaction is given one, and otherwise
+ * by the list each changed preference was last bound into.
+ * <pre>
+ * new TwoStateTransaction()
+ *         .setChecked(wifi, true)
+ *         .setChecked(bluetooth, true)
+ *         .commit();
+ * </pre>
+ * Must be used from the UI thread.
+ */
+public class TwoStateTransaction {
+    private static final String TAG = "TwoStateTransaction";
+
+    private final Map<TwoStatePreference, Boolean> mChanges = new LinkedHashMap<TwoStatePreference, Boolean>();
+    private final PreferenceGroup mRoot;
+
+    public TwoStateTransaction() {
+        this(null);
+    }
+
+    /**
+     * @param root The root of the preferences changed, e.g.
+     *            {@code PreferenceActivity.getPreferenceScreen()}, to rebind each of its
+     *            screens at most once.
+     */
+    public TwoStateTransaction(PreferenceGroup root) {
+        mRoot = root;
+    }
+
+    /**
+     * Records a new checked state for {@code preference}. The last state recorded for a
+     * preference wins.
+     */
+    public TwoStateTransaction setChecked(TwoStatePreference preference, boolean checked) {
+        mChanges.put(preference, checked);
+        return this;
+    }
+
+    /**
+     * Applies the recorded states. The transaction is empty afterwards and can be reused.
+     *
+     * @return The number of preferences whose state actually changed.
+     */
+    public int commit() {
+        final Map<SharedPreferences, SharedPreferences.Editor> batch =
+                new HashMap<SharedPreferences, SharedPreferences.Editor>();
+        final List<TwoStatePreference> changed = new ArrayList<TwoStatePreference>();
+        final List<TwoStatePreference> flipped = new ArrayList<TwoStatePreference>();
+
+        for (Map.Entry<TwoStatePreference, Boolean> change : mChanges.entrySet()) {
+            final TwoStatePreference preference = change.getKey();
+            final boolean checked = change.getValue();
+            if (preference.mChecked == checked) {
+                continue;
+            }
+            final boolean disabledDependents = preference.shouldDisableDependents();
+            preference.mPersistBatch = batch;
+            preference.mDependencyChangeHeld = true;
+            preference.setNotifySuppressed(true);
+            try {
+                preference.setChecked(checked);
+            } finally {
+                preference.setNotifySuppressed(false);
+                preference.mDependencyChangeHeld = false;
+                preference.mPersistBatch = null;
+            }
+            if (preference.mChecked == checked) {
+                changed.add(preference);
+            }
+            if (preference.shouldDisableDependents() != disabledDependents) {
+                flipped.add(preference);
+            }
+        }
+        mChanges.clear();
+
+        for (SharedPreferences.Editor editor : batch.values()) {
+            PreferenceWriteBehind.commitAsync(editor);
+        }
+
+        for (TwoStatePreference preference : flipped) {
+            preference.notifyDependencyChange(preference.shouldDisableDependents());
+        }
+
+        // Any change notification rebinds every visible row of its screen's adapter
+        final Map<Preference, PreferenceScreen> screens = new HashMap<Preference, PreferenceScreen>();
+        if (mRoot != null && !changed.isEmpty()) {
+            findScreens(mRoot, mRoot instanceof PreferenceScreen ? (PreferenceScreen) mRoot : null, screens);
+        }
+        final Set<Object> notified = new HashSet<Object>();
+        for (TwoStatePreference preference : changed) {
+            final PreferenceScreen screen = screens.get(preference);
+            final ViewParent list = preference.getBoundList();
+            if (screen == null && list == null) {
+                // not shown, its row is bound fresh when it is
+                continue;
+            }
+            if (notified.add(screen != null ? screen : list)) {
+                preference.notifyHierarchyChanged();
+            }
+        }
+        Log.d(TAG, "committed " + changed.size() + " changes, " + batch.size() + " files written, "
+              + notified.size() + " screens rebound");
+        return changed.size();
+    }
+
+    /**
+     * Maps every preference under {@code group} to the screen whose list shows it: the
+     * closest enclosing {@link PreferenceScreen}, categories being flattened into it.
+     */
+    private static void findScreens(PreferenceGroup group, PreferenceScreen screen,
+                                    Map<Preference, PreferenceScreen> screens) {
+        final int count = group.getPreferenceCount();
+        for (int i = 0; i < count; i++) {
+            final Preference preference = group.getPreference(i);
+            if (screen != null) {
+                screens.put(preference, screen);
+            }
+            if (preference instanceof PreferenceScreen) {
+                findScreens((PreferenceGroup) preference, (PreferenceScreen) preference, screens);
+            } else if (preference instanceof PreferenceGroup) {
+                findScreens((PreferenceGroup) preference, screen, screens);
+            }
+        }
+    }
+}
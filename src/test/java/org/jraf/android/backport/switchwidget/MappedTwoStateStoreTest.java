@@ -0,0 +1,127 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+/**
+ * Opens, fills and reopens {@link MappedTwoStateStore}s in temporary files, on the JVM.
+ */
+public class MappedTwoStateStoreTest extends TestCase {
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("two_state", ".store");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    public void testRoundTrip() throws IOException {
+        final MappedTwoStateStore store = new MappedTwoStateStore(mFile);
+        assertFalse(store.contains("wifi"));
+        assertTrue(store.getBoolean("wifi", true));
+
+        store.putBoolean("wifi", true);
+        store.putBoolean("bluetooth", false);
+        store.putBoolean("wifi", false);
+
+        assertTrue(store.contains("wifi"));
+        assertFalse(store.getBoolean("wifi", true));
+        assertFalse(store.getBoolean("bluetooth", true));
+        assertEquals(2, store.size());
+        store.close();
+    }
+
+    public void testReopen() throws IOException {
+        MappedTwoStateStore store = new MappedTwoStateStore(mFile);
+        store.putBoolean("wifi", true);
+        store.putBoolean("\u00e9t\u00e9", false);
+        store.close();
+
+        store = new MappedTwoStateStore(mFile);
+        assertEquals(2, store.size());
+        assertTrue(store.getBoolean("wifi", false));
+        assertFalse(store.getBoolean("\u00e9t\u00e9", true));
+        store.putBoolean("wifi", false);
+        store.close();
+
+        store = new MappedTwoStateStore(mFile);
+        assertFalse(store.getBoolean("wifi", true));
+        store.close();
+    }
+
+    public void testGrowsBeyondItsInitialSize() throws IOException {
+        final int count = 1000;
+        MappedTwoStateStore store = new MappedTwoStateStore(mFile);
+        for (int i = 0; i < count; i++) {
+            store.putBoolean("preference_key_" + i, i % 3 == 0);
+        }
+        store.close();
+        assertTrue(mFile.length() > 4096);
+
+        store = new MappedTwoStateStore(mFile);
+        assertEquals(count, store.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i % 3 == 0, store.getBoolean("preference_key_" + i, i % 3 != 0));
+        }
+        store.close();
+    }
+
+    public void testRefusesAnotherFile() throws IOException {
+        write(new byte[] { 'n', 'o', 't', ' ', 'a', ' ', 's', 't', 'o', 'r', 'e' });
+        assertCorrupted();
+    }
+
+    public void testRefusesATruncatedHeader() throws IOException {
+        write(new byte[] { 'A', 'S', 'B' });
+        assertCorrupted();
+    }
+
+    public void testRefusesAnEndPastTheFile() throws IOException {
+        createWithOneKey();
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(4);
+        file.writeInt((int) file.length() + 1);
+        file.close();
+        assertCorrupted();
+    }
+
+    public void testRefusesARecordPastTheEnd() throws IOException {
+        createWithOneKey();
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        // the key length of the first record
+        file.seek(8);
+        file.writeShort(100);
+        file.close();
+        assertCorrupted();
+    }
+
+    private void createWithOneKey() throws IOException {
+        final MappedTwoStateStore store = new MappedTwoStateStore(mFile);
+        store.putBoolean("wifi", true);
+        store.close();
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.write(bytes);
+        file.close();
+    }
+
+    private void assertCorrupted() {
+        try {
+            new MappedTwoStateStore(mFile).close();
+            fail("opened " + mFile);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.jraf.android.backport.switchwidget;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Draws with {@link SoftwareSwitchCanvas} on the JVM, without the framework, and checks
+ * the pixels: {@code gradle test}.
+ */
+public class SoftwareSwitchCanvasTest extends TestCase {
+
+    private static final int RED = 0xffff0000;
+    private static final int BLUE = 0xff0000ff;
+    private static final int WHITE = 0xffffffff;
+
+    public void testBlend() {
+        assertEquals(RED, SoftwareSwitchCanvas.blend(BLUE, RED));
+        assertEquals(BLUE, SoftwareSwitchCanvas.blend(BLUE, 0x00ff0000));
+        assertEquals(0xff80007f, SoftwareSwitchCanvas.blend(BLUE, 0x80ff0000));
+    }
+
+    public void testMultiply() {
+        assertEquals(0x80800000, SoftwareSwitchCanvas.multiply(0xffff0000, 0x80808080));
+        assertEquals(BLUE, SoftwareSwitchCanvas.multiply(BLUE, WHITE));
+    }
+
+    public void testDrawableFillsItsBounds() {
+        final SoftwareSwitchCanvas canvas = new SoftwareSwitchCanvas(10, 10, null);
+        canvas.clear(BLUE);
+        canvas.translate(1, 1);
+        canvas.drawDrawable(solid(RED, 1, 1), new SwitchCanvas.IntRect(2, 3, 6, 7));
+
+        assertRect(canvas, 3, 4, 7, 8, RED, BLUE);
+        assertEquals(16, canvas.getPixelsWritten());
+    }
+
+    public void testResolverGetsTheDrawnSize() {
+        final Object handle = new Object();
+        final int[] size = new int[2];
+        final SoftwareSwitchCanvas canvas = new SoftwareSwitchCanvas(10, 10, new SoftwareSwitchCanvas.Resolver() {
+            @Override
+            public SoftwareSwitchCanvas.Raster resolve(Object source, int width, int height) {
+                assertSame(handle, source);
+                size[0] = width;
+                size[1] = height;
+                return solid(RED, width, height);
+            }
+        });
+        canvas.clear(BLUE);
+        canvas.drawDrawable(handle, new SwitchCanvas.IntRect(1, 2, 5, 8));
+
+        assertEquals(4, size[0]);
+        assertEquals(6, size[1]);
+        assertRect(canvas, 1, 2, 5, 8, RED, BLUE);
+    }
+
+    public void testLayoutIsPlacedAtItsOrigin() {
+        final SoftwareSwitchCanvas canvas = new SoftwareSwitchCanvas(10, 10, null);
+        canvas.clear(BLUE);
+        canvas.translate(2, 1);
+        canvas.drawLayout(new SoftwareSwitchCanvas.Raster(new int[] { RED, RED, RED, RED, RED, RED }, 3, 2, 1, 1));
+
+        assertRect(canvas, 3, 2, 6, 4, RED, BLUE);
+        assertEquals(1, canvas.getDrawCallCount());
+    }
+
+    public void testClipIsRestored() {
+        final SoftwareSwitchCanvas canvas = new SoftwareSwitchCanvas(10, 10, null);
+        canvas.clear(BLUE);
+        final SwitchCanvas.IntRect all = new SwitchCanvas.IntRect(0, 0, 10, 10);
+        canvas.save();
+        assertTrue(canvas.clipRect(0, 0, 5, 10));
+        canvas.drawDrawable(solid(RED, 1, 1), all);
+        canvas.restore();
+
+        assertRect(canvas, 0, 0, 5, 10, RED, BLUE);
+        canvas.drawDrawable(solid(RED, 1, 1), all);
+        assertRect(canvas, 0, 0, 10, 10, RED, BLUE);
+    }
+
+    public void testRoundRectSkipsItsCorners() {
+        final SoftwareSwitchCanvas canvas = new SoftwareSwitchCanvas(10, 10, null);
+        canvas.clear(BLUE);
+        canvas.drawRoundRect(0, 0, 10, 10, 5, RED);
+
+        assertEquals(BLUE, canvas.getPixel(0, 0));
+        assertEquals(BLUE, canvas.getPixel(9, 9));
+        assertEquals(RED, canvas.getPixel(5, 5));
+        assertEquals(RED, canvas.getPixel(0, 5));
+        assertEquals(RED, canvas.getPixel(5, 9));
+    }
+
+    public void testBitmapIsMultipliedByItsColor() {
+        final SoftwareSwitchCanvas canvas = new SoftwareSwitchCanvas(4, 4, null);
+        canvas.clear(0);
+        canvas.drawBitmap(solid(WHITE, 2, 2), new SwitchCanvas.IntRect(0, 0, 2, 2),
+                          new SwitchCanvas.IntRect(0, 0, 4, 4), RED);
+
+        assertRect(canvas, 0, 0, 4, 4, RED, 0);
+    }
+
+    public void testMeshStretchesTheBitmap() {
+        final SoftwareSwitchCanvas canvas = new SoftwareSwitchCanvas(10, 4, null);
+        canvas.clear(0);
+        // one quad, from (0, 0) to (8, 4)
+        final float[] verts = { 0, 0, 8, 0, 0, 4, 8, 4 };
+        canvas.drawBitmapMesh(solid(WHITE, 2, 2), 1, 1, verts, 0x80ffffff);
+
+        assertRect(canvas, 0, 0, 8, 4, 0x80ffffff, 0);
+        assertEquals(32, canvas.getPixelsWritten());
+    }
+
+    static SoftwareSwitchCanvas.Raster solid(int color, int width, int height) {
+        final int[] pixels = new int[width * height];
+        Arrays.fill(pixels, color);
+        return new SoftwareSwitchCanvas.Raster(pixels, width, height);
+    }
+
+    /**
+     * Asserts that the pixels of the canvas are {@code inside} within the rectangle and
+     * {@code outside} elsewhere.
+     */
+    static void assertRect(SoftwareSwitchCanvas canvas, int left, int top, int right, int bottom,
+                           int inside, int outside) {
+        for (int y = 0; y < canvas.getHeight(); y++) {
+            for (int x = 0; x < canvas.getWidth(); x++) {
+                final boolean in = x >= left && x < right && y >= top && y < bottom;
+                assertEquals("(" + x + ", " + y + ")", in ? inside : outside, canvas.getPixel(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.jraf.android.backport.switchwidget;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the squash mesh of bitmap thumbs, and draws it with
+ * {@link SoftwareSwitchCanvas}, on the JVM.
+ */
+public class ThumbMeshTest extends TestCase {
+
+    private static final float DIAMETER = 40;
+    private static final float DELTA = 0.01f;
+
+    public void testRestingMeshIsTheDiameterWide() {
+        final float[] verts = new ThumbMesh().getVerts(DIAMETER, 0, false);
+        final int row = ThumbMesh.WIDTH + 1;
+
+        assertEquals(DIAMETER / ThumbMesh.WIDTH, ThumbMesh.getX(verts, 0), DELTA);
+        assertEquals(DIAMETER * row / ThumbMesh.WIDTH, ThumbMesh.getX(verts, row - 1), DELTA);
+        assertEquals(0, ThumbMesh.getY(verts, 0), DELTA);
+        assertEquals(DIAMETER, ThumbMesh.getY(verts, row), DELTA);
+    }
+
+    public void testSquashStretchesTheMiddle() {
+        final float[] verts = new ThumbMesh().getVerts(DIAMETER, 10000, false);
+        final int half = ThumbMesh.WIDTH / 2;
+
+        final float before = ThumbMesh.getX(verts, half - 1);
+        final float after = ThumbMesh.getX(verts, half);
+        // one column of the circle, plus the whole squash
+        assertEquals(DIAMETER / ThumbMesh.WIDTH + DIAMETER, after - before, DELTA);
+        assertEquals(2 * DIAMETER + DIAMETER / ThumbMesh.WIDTH, ThumbMesh.getX(verts, ThumbMesh.WIDTH), DELTA);
+    }
+
+    public void testCoarseMeshSplitsTheSquash() {
+        final float[] verts = new ThumbMesh().getVerts(DIAMETER, 5000, true);
+        final int half = ThumbMesh.COARSE_WIDTH / 2;
+        final float column = DIAMETER / ThumbMesh.COARSE_WIDTH;
+
+        assertEquals(9, ThumbMesh.getMeshWidth(true) + 1);
+        assertEquals(0, ThumbMesh.getX(verts, 0), DELTA);
+        assertEquals(half * column + DIAMETER / 4, ThumbMesh.getX(verts, half), DELTA);
+        assertEquals(1.5f * DIAMETER, ThumbMesh.getX(verts, ThumbMesh.COARSE_WIDTH), DELTA);
+        // second row
+        assertEquals(DIAMETER, ThumbMesh.getY(verts, ThumbMesh.COARSE_WIDTH + 1), DELTA);
+    }
+
+    public void testVertsFollowTheirInputs() {
+        final ThumbMesh mesh = new ThumbMesh();
+        final float[] verts = mesh.getVerts(DIAMETER, 0, true);
+        final float right = ThumbMesh.getX(verts, ThumbMesh.COARSE_WIDTH);
+
+        assertSame(verts, mesh.getVerts(DIAMETER, 0, true));
+        assertEquals(right, ThumbMesh.getX(verts, ThumbMesh.COARSE_WIDTH), DELTA);
+        mesh.getVerts(DIAMETER, 10000, true);
+        assertEquals(2 * right, ThumbMesh.getX(verts, ThumbMesh.COARSE_WIDTH), DELTA);
+        mesh.getVerts(DIAMETER / 2, 10000, true);
+        assertEquals(right, ThumbMesh.getX(verts, ThumbMesh.COARSE_WIDTH), DELTA);
+    }
+
+    public void testSquashedThumbCoversTwiceItsCircle() {
+        final int dia = (int) DIAMETER;
+        final SoftwareSwitchCanvas canvas = new SoftwareSwitchCanvas(3 * dia, dia, null);
+        canvas.clear(0);
+        final float[] verts = new ThumbMesh().getVerts(DIAMETER, 10000, true);
+        canvas.drawBitmapMesh(SoftwareSwitchCanvasTest.solid(0xffffffff, dia, dia),
+                              ThumbMesh.getMeshWidth(true), ThumbMesh.HEIGHT, verts, 0xff00ff00);
+
+        SoftwareSwitchCanvasTest.assertRect(canvas, 0, 0, 2 * dia, dia, 0xff00ff00, 0);
+    }
+}
@@ -0,0 +1,47 @@
+package org.jraf.android.backport.switchwidget;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Renders real switches with {@link SoftwareSwitchCanvas} and compares them with the
+ * framework rendering. Runs on a device or an emulator: {@code gradle
+ * connectedAndroidTest}; the canvas itself is tested on the JVM by
+ * {@code SoftwareSwitchCanvasTest}.
+ */
+public class SwitchRenderTest extends AndroidTestCase {
+
+    // nearest sampling of the thumb mesh and the lack of anti-aliasing only move edges
+    private static final int TOLERANCE = 64;
+    private static final float MAX_DIFFERENT_RATIO = 0.03f;
+
+    public void testUncheckedMatchesDevice() {
+        assertMatchesDevice(false);
+    }
+
+    public void testCheckedMatchesDevice() {
+        assertMatchesDevice(true);
+    }
+
+    public void testCheckedDiffersFromUnchecked() {
+        final Switch view = new Switch(getContext());
+        final SwitchRenderer renderer = new SwitchRenderer(view);
+        view.bindChecked(false);
+        final int[] unchecked = renderer.renderSoftware();
+        view.bindChecked(true);
+        final int[] checked = renderer.renderSoftware();
+        assertTrue(SwitchRenderer.countDifferent(unchecked, checked, TOLERANCE) > unchecked.length / 20);
+    }
+
+    private void assertMatchesDevice(boolean checked) {
+        final Switch view = new Switch(getContext());
+        final SwitchRenderer renderer = new SwitchRenderer(view);
+        view.bindChecked(checked);
+        assertTrue(renderer.getWidth() > 0 && renderer.getHeight() > 0);
+
+        final int[] device = renderer.renderDevice();
+        final int[] software = renderer.renderSoftware();
+        final int different = SwitchRenderer.countDifferent(device, software, TOLERANCE);
+        assertTrue(different + " of " + device.length + " pixels differ",
+                   different <= device.length * MAX_DIFFERENT_RATIO);
+    }
+}
@@ -0,0 +1,127 @@
+package org.jraf.android.backport.switchwidget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.text.Layout;
+import android.view.View;
+
+/**
+ * Test harness rendering a {@link Switch} through {@link SoftwareSwitchCanvas} and, for
+ * reference, through the framework canvas, and comparing the frames pixel by pixel.
+ */
+final class SwitchRenderer {
+
+    /**
+     * Takes the source pixels from the framework: bitmaps as they are, drawables drawn
+     * into a bitmap of the size they are drawn at, layouts into one of their size. The
+     * software canvas then places, scales and composites them.
+     */
+    static final SoftwareSwitchCanvas.Resolver RESOLVER = new SoftwareSwitchCanvas.Resolver() {
+        @Override
+        public SoftwareSwitchCanvas.Raster resolve(Object source, int width, int height) {
+            if (source instanceof Bitmap) {
+                final Bitmap bitmap = (Bitmap) source;
+                return toRaster(bitmap, 0, 0);
+            }
+            if (source instanceof Drawable) {
+                final Drawable drawable = (Drawable) source;
+                if (width <= 0 || height <= 0) {
+                    return null;
+                }
+                final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                drawable.setBounds(0, 0, width, height);
+                drawable.draw(new Canvas(bitmap));
+                return toRaster(bitmap, 0, 0);
+            }
+            if (source instanceof Layout) {
+                final Layout layout = (Layout) source;
+                if (layout.getWidth() <= 0 || layout.getHeight() <= 0) {
+                    return null;
+                }
+                final Bitmap bitmap = Bitmap.createBitmap(layout.getWidth(), layout.getHeight(), Bitmap.Config.ARGB_8888);
+                layout.draw(new Canvas(bitmap));
+                return toRaster(bitmap, 0, 0);
+            }
+            return null;
+        }
+    };
+
+    private final Switch mSwitch;
+    private final int mWidth;
+    private final int mHeight;
+
+    /**
+     * Measures and lays out {@code view} at its wrapped size.
+     */
+    SwitchRenderer(Switch view) {
+        mSwitch = view;
+        final int unspecified = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        view.measure(unspecified, unspecified);
+        mWidth = view.getMeasuredWidth();
+        mHeight = view.getMeasuredHeight();
+        view.layout(0, 0, mWidth, mHeight);
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The switch drawn by {@link SoftwareSwitchCanvas} over transparent pixels.
+     */
+    int[] renderSoftware() {
+        final SoftwareSwitchCanvas canvas = new SoftwareSwitchCanvas(mWidth, mHeight, RESOLVER);
+        canvas.clear(0);
+        mSwitch.drawSwitch(canvas);
+        return canvas.getPixels();
+    }
+
+    /**
+     * @return The switch drawn by the framework into a software bitmap, the way
+     *         {@link Switch#onDraw(Canvas)} draws it.
+     */
+    int[] renderDevice() {
+        final Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        final AndroidSwitchCanvas canvas = new AndroidSwitchCanvas();
+        canvas.setCanvas(new Canvas(bitmap));
+        mSwitch.drawSwitch(canvas);
+        canvas.setCanvas(null);
+        return toRaster(bitmap, 0, 0).pixels;
+    }
+
+    /**
+     * @return The number of pixels of which a channel differs by more than
+     *         {@code tolerance}.
+     */
+    static int countDifferent(int[] expected, int[] actual, int tolerance) {
+        if (expected.length != actual.length) {
+            throw new IllegalArgumentException("sizes differ: " + expected.length + " " + actual.length);
+        }
+        int count = 0;
+        for (int i = 0; i < expected.length; i++) {
+            final int e = expected[i];
+            final int a = actual[i];
+            for (int shift = 0; shift < 32; shift += 8) {
+                if (Math.abs(((e >>> shift) & 0xff) - ((a >>> shift) & 0xff)) > tolerance) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static SoftwareSwitchCanvas.Raster toRaster(Bitmap bitmap, int left, int top) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] pixels = new int[width * height];
+        // getPixels() hands out non premultiplied colors, like the software canvas
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return new SoftwareSwitchCanvas.Raster(pixels, width, height, left, top);
+    }
+}